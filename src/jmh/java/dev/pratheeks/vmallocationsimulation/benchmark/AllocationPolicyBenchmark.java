@@ -0,0 +1,156 @@
+package dev.pratheeks.vmallocationsimulation.benchmark;
+
+import dev.pratheeks.vmallocationsimulation.Main;
+import dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking.VmAllocationPolicy4DPackingAbstract;
+import org.cloudsimplus.allocationpolicies.VmAllocationPolicy;
+import org.cloudsimplus.core.CloudSimPlus;
+import org.cloudsimplus.datacenters.DatacenterSimple;
+import org.cloudsimplus.hosts.Host;
+import org.cloudsimplus.hosts.HostSimple;
+import org.cloudsimplus.resources.Pe;
+import org.cloudsimplus.resources.PeSimple;
+import org.cloudsimplus.schedulers.cloudlet.CloudletSchedulerTimeShared;
+import org.cloudsimplus.schedulers.vm.VmSchedulerTimeShared;
+import org.cloudsimplus.util.Log;
+import org.cloudsimplus.vms.Vm;
+import org.cloudsimplus.vms.VmSimple;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks findHostForVm of the allocation policies on synthetic datacenters with the host and VM shapes of
+ * {@link dev.pratheeks.vmallocationsimulation.VmMigrationSimulation}, 3 VMs per host already placed.
+ * <p>
+ * Reports throughput, average time and the sampled latency distribution (p50 .. p99.99); running through
+ * {@link #main(String[])} adds the allocation rate from the GC profiler.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class AllocationPolicyBenchmark {
+    private static final int HOST_PES = 64;
+    private static final long HOST_RAM = 128_000;
+    private static final long HOST_STORAGE = 10_000_000;
+    private static final long HOST_BW = 10_000;
+    private static final long VM_SIZE = 10_000;
+    private static final long VM_BW = 1000;
+    private static final long VM_RAM_MIN = 1000;
+    private static final long VM_RAM_MAX = 32_000;
+    private static final int VM_PES_MIN = 1;
+    private static final int VM_PES_MAX = 16;
+    private static final int VMS_PER_HOST = 3;
+    private static final int PROBE_VMS = 1024; // Power of 2, cycled through by the benchmark
+    private static final long SEED = 42;
+
+    @State(Scope.Thread)
+    public static class Datacenter {
+        @Param({"4DBinPacking", "4DFirstFitDecreasing", "4DBestFitDecreasing", "4DDotProduct", "4DL2Norm",
+                "BestFit", "IndexedBestFit", "FirstFit", "Simple", "RoundRobin"})
+        public String policy;
+
+        @Param({"10", "100", "1000", "10000"})
+        public int hosts;
+
+        VmAllocationPolicy vmAllocationPolicy;
+        List<Host> hostList;
+        Vm[] probeVms;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Log.setLevel(ch.qos.logback.classic.Level.OFF);
+            vmAllocationPolicy = Main.getVmAllocationPolicy(policy);
+            hostList = createDatacenter(vmAllocationPolicy, hosts);
+            Random random = new Random(SEED);
+            for (int i = 0; i < hosts * VMS_PER_HOST; i++) {
+                vmAllocationPolicy.allocateHostForVm(createVm(i, random));
+            }
+            probeVms = new Vm[PROBE_VMS];
+            for (int i = 0; i < PROBE_VMS; i++) {
+                probeVms[i] = createVm(hosts * VMS_PER_HOST + i, random);
+            }
+        }
+    }
+
+    @Benchmark
+    public void findHostForVm(Datacenter datacenter, Blackhole blackhole) {
+        Vm vm = datacenter.probeVms[datacenter.next++ & (PROBE_VMS - 1)];
+        blackhole.consume(datacenter.vmAllocationPolicy.findHostForVm(vm));
+    }
+
+    /**
+     * Plans the migration of all the VMs of one host, as done before draining a host with the 4D packing policies
+     */
+    @State(Scope.Thread)
+    public static class Repacking {
+        @Param({"4DBinPacking", "4DFirstFitDecreasing", "4DBestFitDecreasing", "4DDotProduct", "4DL2Norm"})
+        public String policy;
+
+        @Param({"10", "100", "1000"})
+        public int hosts;
+
+        VmAllocationPolicy4DPackingAbstract vmAllocationPolicy;
+        List<Host> hostList;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Log.setLevel(ch.qos.logback.classic.Level.OFF);
+            vmAllocationPolicy = (VmAllocationPolicy4DPackingAbstract) Main.getVmAllocationPolicy(policy);
+            hostList = createDatacenter(vmAllocationPolicy, hosts);
+            Random random = new Random(SEED);
+            for (int i = 0; i < hosts * VMS_PER_HOST; i++) {
+                vmAllocationPolicy.allocateHostForVm(createVm(i, random));
+            }
+        }
+    }
+
+    @Benchmark
+    public void recalculatePacking(Repacking repacking) {
+        Host sourceHost = repacking.hostList.get(repacking.next++ % repacking.hostList.size());
+        repacking.vmAllocationPolicy.recalculatePacking(sourceHost);
+    }
+
+    private static List<Host> createDatacenter(VmAllocationPolicy vmAllocationPolicy, int hostCount) {
+        CloudSimPlus simulation = new CloudSimPlus();
+        List<Host> hostList = new ArrayList<>(hostCount);
+        for (int i = 0; i < hostCount; i++) {
+            List<Pe> peList = new ArrayList<>(HOST_PES);
+            for (int j = 0; j < HOST_PES; j++) {
+                peList.add(new PeSimple(1000));
+            }
+            hostList.add(new HostSimple(HOST_RAM, HOST_BW, HOST_STORAGE, peList)
+                    .setVmScheduler(new VmSchedulerTimeShared()));
+        }
+        new DatacenterSimple(simulation, hostList, vmAllocationPolicy);
+        return hostList;
+    }
+
+    private static Vm createVm(long id, Random random) {
+        int pes = VM_PES_MIN + random.nextInt(VM_PES_MAX - VM_PES_MIN + 1);
+        long ram = VM_RAM_MIN + (long) (random.nextDouble() * (VM_RAM_MAX - VM_RAM_MIN));
+        return new VmSimple(id, 1000, pes)
+                .setRam(ram)
+                .setSize(VM_SIZE)
+                .setBw(VM_BW)
+                .setCloudletScheduler(new CloudletSchedulerTimeShared());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(AllocationPolicyBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
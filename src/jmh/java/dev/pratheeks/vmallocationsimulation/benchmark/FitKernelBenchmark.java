@@ -0,0 +1,137 @@
+package dev.pratheeks.vmallocationsimulation.benchmark;
+
+import dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking.FitKernel;
+import dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking.PackedCapacityModel;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks finding every host a VM fits on, on hosts with the shapes of
+ * {@link dev.pratheeks.vmallocationsimulation.VmMigrationSimulation} and 3 random VMs each: one
+ * {@link PackedCapacityModel#canFitVm(int, int)} per host, as the packers did, against the scalar and SIMD
+ * {@link FitKernel}s building a fit bitmask.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class FitKernelBenchmark {
+    private static final int HOST_PES = 64;
+    private static final long HOST_RAM = 128_000;
+    private static final long HOST_BW = 10_000;
+    private static final long VM_BW = 1000;
+    private static final long VM_RAM_MIN = 1000;
+    private static final long VM_RAM_MAX = 32_000;
+    private static final int VM_PES_MIN = 1;
+    private static final int VM_PES_MAX = 16;
+    private static final int VMS_PER_HOST = 3;
+    private static final int PROBE_VMS = 1024; // Power of 2, cycled through by the benchmark
+    private static final long SEED = 42;
+
+    @State(Scope.Thread)
+    public static class Hosts {
+        @Param({"1000", "10000", "100000"})
+        public int hosts;
+
+        PackedCapacityModel model;
+        long[] ramFree;
+        long[] pesFree;
+        long[] bwFree;
+        double[] powerFree;
+        long[] probeRam;
+        long[] probePes;
+        long[] mask;
+        FitKernel scalarKernel;
+        FitKernel vectorKernel;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            Random random = new Random(SEED);
+            model = new PackedCapacityModel(hosts, PROBE_VMS);
+            ramFree = new long[hosts];
+            pesFree = new long[hosts];
+            bwFree = new long[hosts];
+            powerFree = new double[hosts];
+            for (int host = 0; host < hosts; host++) {
+                model.addHost(host, HOST_RAM, HOST_PES, HOST_BW, 0);
+                for (int i = 0; i < VMS_PER_HOST; i++) {
+                    model.addHostUsage(host, randomRam(random), randomPes(random), VM_BW, 0);
+                }
+                ramFree[host] = (long) model.remainingCapacity(host, PackedCapacityModel.RAM);
+                pesFree[host] = (long) model.remainingCapacity(host, PackedCapacityModel.PES);
+                bwFree[host] = (long) model.remainingCapacity(host, PackedCapacityModel.BW);
+            }
+            probeRam = new long[PROBE_VMS];
+            probePes = new long[PROBE_VMS];
+            for (int i = 0; i < PROBE_VMS; i++) {
+                probeRam[i] = randomRam(random);
+                probePes[i] = randomPes(random);
+                model.addVm(hosts + i, probeRam[i], probePes[i], VM_BW, 0);
+            }
+            mask = new long[PackedCapacityModel.maskWords(hosts)];
+            scalarKernel = FitKernel.scalar();
+            vectorKernel = FitKernel.vector();
+            if (vectorKernel == null) {
+                throw new IllegalStateException(
+                        "Build with the simd profile and run with --add-modules jdk.incubator.vector");
+            }
+        }
+
+        int nextVm() {
+            return next++ & (PROBE_VMS - 1);
+        }
+
+        long fitMask(FitKernel kernel, int vm) {
+            long fits = 0;
+            for (int word = 0, from = 0; from < hosts; word++, from += Long.SIZE) {
+                mask[word] = kernel.fitMask(ramFree, pesFree, bwFree, powerFree, from, Math.min(from + Long.SIZE, hosts),
+                        probeRam[vm], probePes[vm], VM_BW, 0);
+                fits += Long.bitCount(mask[word]);
+            }
+            return fits;
+        }
+    }
+
+    @Benchmark
+    public long canFitVm(Hosts hosts) {
+        int vm = hosts.nextVm();
+        long fits = 0;
+        for (int host = 0; host < hosts.hosts; host++) {
+            if (hosts.model.canFitVm(host, vm)) {
+                fits++;
+            }
+        }
+        return fits;
+    }
+
+    @Benchmark
+    public long scalarKernel(Hosts hosts) {
+        return hosts.fitMask(hosts.scalarKernel, hosts.nextVm());
+    }
+
+    @Benchmark
+    public long vectorKernel(Hosts hosts) {
+        return hosts.fitMask(hosts.vectorKernel, hosts.nextVm());
+    }
+
+    private static long randomRam(Random random) {
+        return VM_RAM_MIN + (long) (random.nextDouble() * (VM_RAM_MAX - VM_RAM_MIN));
+    }
+
+    private static long randomPes(Random random) {
+        return VM_PES_MIN + random.nextInt(VM_PES_MAX - VM_PES_MIN + 1);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(FitKernelBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,229 @@
+package dev.pratheeks.vmallocationsimulation;
+
+import dev.pratheeks.vmallocationsimulation.metrics.RunMetrics;
+import dev.pratheeks.vmallocationsimulation.metrics.SweepMetricsSummary;
+import dev.pratheeks.vmallocationsimulation.results.ResultSink;
+import dev.pratheeks.vmallocationsimulation.trace.EventTrace;
+import dev.pratheeks.vmallocationsimulation.workload.Workload;
+import org.cloudsimplus.allocationpolicies.VmAllocationPolicy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Function;
+
+/**
+ * Runs the independent (allocation policy, host count, random seed) cells of an experiment sweep concurrently
+ * on a bounded thread pool.
+ * <p>
+ * Each cell gets its own simulation, allocation policy and event trace, which is either disabled or written to
+ * a trace file of its own, so only the progress of the sweep is printed to stdout.
+ * When resuming, cells whose results the result sink already has are skipped.
+ * <p>
+ * The latency histograms and solver counters of each cell are written under metrics in the results directory, and
+ * merged per policy and host count into metrics/summary.csv once the sweep is done, skipped cells included.
+ * <p>
+ * With a fork policy, the VMs of each host count and random seed are placed once by that policy, and the cells of
+ * every policy run their drain phase from the same placement, kept in a {@link SimulationSnapshot}, written under
+ * snapshots in the results directory so that a resumed sweep forks from the same state.
+ */
+public class ExperimentSweep {
+    private final Function<String, VmAllocationPolicy> policyFactory;
+    private final Workload.Factory workloadFactory;
+    private final double drainFraction;
+    private final String forkPolicy;
+    private final Path snapshotDir;
+    /**
+     * Snapshot of each host count and random seed, taken by the first cell that needs it
+     */
+    private final ConcurrentMap<String, FutureTask<SimulationSnapshot>> snapshots = new ConcurrentHashMap<>();
+    private final Path logDir;
+    private final Path metricsDir;
+    private final ResultSink resultSink;
+    private final int parallelism;
+    private final boolean resume;
+    private final boolean cellLogs;
+    private final List<Cell> cells = new ArrayList<>();
+    /**
+     * Class name of the allocation policy of each policy name, which names the results of its cells
+     */
+    private final Map<String, String> allocationAlgoNames = new HashMap<>();
+    private final SweepMetricsSummary metricsSummary = new SweepMetricsSummary();
+
+    /**
+     * @param policyFactory   creates a new allocation policy for each cell from its name
+     * @param workloadFactory creates the VMs of each cell
+     * @param drainFraction   share of the hosts of each cell taken down for maintenance at once, 0 to drain single
+     *                        hosts instead
+     * @param forkPolicy      allocation policy of the initial allocation the cells fork from, null to run each cell
+     *                        from scratch
+     * @param resultSink      receives the results of all the cells
+     * @param resultsDir      directory the metrics and event traces of the cells are written to
+     * @param parallelism     maximum number of simulations running at the same time
+     * @param resume          skip the cells whose results already exist
+     * @param cellLogs        write the event trace of each cell to a file under logs in the results directory
+     */
+    public ExperimentSweep(Function<String, VmAllocationPolicy> policyFactory, Workload.Factory workloadFactory,
+                           double drainFraction, String forkPolicy, ResultSink resultSink, Path resultsDir,
+                           int parallelism, boolean resume, boolean cellLogs) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        if (drainFraction < 0 || drainFraction > 1) {
+            throw new IllegalArgumentException("Drain fraction must be between 0 and 1: " + drainFraction);
+        }
+        this.policyFactory = policyFactory;
+        this.workloadFactory = workloadFactory;
+        this.drainFraction = drainFraction;
+        this.forkPolicy = forkPolicy;
+        this.snapshotDir = forkPolicy == null ? null
+                : resultsDir.resolve("snapshots").resolve(policyFactory.apply(forkPolicy).getClass().getSimpleName());
+        this.logDir = resultsDir.resolve("logs");
+        this.metricsDir = resultsDir.resolve("metrics");
+        this.resultSink = resultSink;
+        this.parallelism = parallelism;
+        this.resume = resume;
+        this.cellLogs = cellLogs;
+    }
+
+    public void addCell(String allocationPolicy, int hostCount, long randomSeed) {
+        String allocationAlgoName = allocationAlgoNames.computeIfAbsent(allocationPolicy,
+                name -> policyFactory.apply(name).getClass().getSimpleName());
+        cells.add(new Cell(allocationPolicy, allocationAlgoName, hostCount, randomSeed));
+    }
+
+    /**
+     * Runs all the cells and waits for them to finish
+     *
+     * @return the number of cells that failed
+     */
+    public int run() throws InterruptedException, IOException {
+        List<Cell> pending = new ArrayList<>();
+        for (Cell cell : cells) {
+            if (resume && resultSink.hasRun(cell.allocationAlgoName, cell.hostCount, cell.randomSeed)) {
+                addDoneCellMetrics(cell);
+                continue;
+            }
+            pending.add(cell);
+        }
+        System.out.printf("Running %d simulations on %d threads (%d already done)%n",
+                pending.size(), parallelism, cells.size() - pending.size());
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        CompletionService<String> completion = new ExecutorCompletionService<>(executor);
+        for (Cell cell : pending) {
+            completion.submit(() -> runCell(cell));
+        }
+        executor.shutdown();
+
+        long start = System.nanoTime();
+        int failed = 0;
+        for (int done = 1; done <= pending.size(); done++) {
+            String status;
+            try {
+                status = completion.take().get();
+            } catch (ExecutionException e) {
+                failed++;
+                status = "FAILED: " + e.getCause();
+            }
+            double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+            double remainingSeconds = elapsedSeconds / done * (pending.size() - done);
+            System.out.printf("[%d/%d] %s (elapsed %.0f s, remaining ~%.0f s)%n",
+                    done, pending.size(), status, elapsedSeconds, remainingSeconds);
+        }
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        metricsSummary.write(metricsDir.resolve("summary.csv"));
+        return failed;
+    }
+
+    private void addDoneCellMetrics(Cell cell) throws IOException {
+        Path metricsFile = metricsFile(cell);
+        if (Files.exists(metricsFile)) {
+            metricsSummary.add(cell.allocationAlgoName, cell.hostCount, RunMetrics.read(metricsFile));
+        }
+    }
+
+    private String runCell(Cell cell) throws Exception {
+        VmAllocationPolicy policy = policyFactory.apply(cell.allocationPolicy);
+        String name = policy.getClass().getSimpleName() + " hosts=" + cell.hostCount + " seed=" + cell.randomSeed;
+        long start = System.nanoTime();
+        RunMetrics metrics = new RunMetrics();
+        try (EventTrace trace = openCellTrace(cell)) {
+            if (forkPolicy == null) {
+                new VmMigrationSimulation(policy, cell.hostCount, cell.randomSeed, workloadFactory, drainFraction,
+                        trace, metrics, resultSink);
+            } else {
+                new VmMigrationSimulation(policy, snapshot(cell), drainFraction, trace, metrics, resultSink);
+            }
+            metrics.write(metricsFile(cell));
+        } catch (Exception e) {
+            throw new Exception(name + ": " + e, e);
+        }
+        metricsSummary.add(policy.getClass().getSimpleName(), cell.hostCount, metrics);
+        return String.format("%s finished in %.1f s", name, (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * @return the snapshot of the host count and random seed of the cell, read or taken by this thread if no other
+     * cell did yet, otherwise once the thread of that cell is done with it
+     */
+    private SimulationSnapshot snapshot(Cell cell) throws Exception {
+        String key = "hosts_" + cell.hostCount + "_" + cell.randomSeed;
+        FutureTask<SimulationSnapshot> task = new FutureTask<>(() -> {
+            Path snapshotFile = snapshotDir.resolve(key + ".snapshot");
+            if (Files.exists(snapshotFile)) {
+                return SimulationSnapshot.read(snapshotFile);
+            }
+            SimulationSnapshot snapshot = VmMigrationSimulation.snapshot(policyFactory.apply(forkPolicy),
+                    cell.hostCount, cell.randomSeed, workloadFactory);
+            snapshot.write(snapshotFile);
+            return snapshot;
+        });
+        FutureTask<SimulationSnapshot> existing = snapshots.putIfAbsent(key, task);
+        if (existing == null) {
+            task.run();
+            existing = task;
+        }
+        try {
+            return existing.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception cause ? cause : e;
+        }
+    }
+
+    private Path metricsFile(Cell cell) {
+        String allocationAlgoName = cell.allocationAlgoName;
+        return metricsDir.resolve(allocationAlgoName)
+                .resolve(allocationAlgoName + "_hosts_" + cell.hostCount + "_" + cell.randomSeed + ".csv");
+    }
+
+    private EventTrace openCellTrace(Cell cell) throws IOException {
+        if (!cellLogs) {
+            return EventTrace.disabled();
+        }
+        String allocationAlgoName = cell.allocationAlgoName;
+        Path traceFile = logDir.resolve(allocationAlgoName)
+                .resolve(allocationAlgoName + "_hosts_" + cell.hostCount + "_" + cell.randomSeed + ".jsonl");
+        Files.createDirectories(traceFile.getParent());
+        return EventTrace.open(traceFile);
+    }
+
+    private class Cell {
+        private final String allocationPolicy;
+        private final String allocationAlgoName;
+        private final int hostCount;
+        private final long randomSeed;
+
+        private Cell(String allocationPolicy, String allocationAlgoName, int hostCount, long randomSeed) {
+            this.allocationPolicy = allocationPolicy;
+            this.allocationAlgoName = allocationAlgoName;
+            this.hostCount = hostCount;
+            this.randomSeed = randomSeed;
+        }
+    }
+}
@@ -1,37 +1,171 @@
 package dev.pratheeks.vmallocationsimulation;
 
-import com.opencsv.exceptions.CsvDataTypeMismatchException;
-import com.opencsv.exceptions.CsvRequiredFieldEmptyException;
-import dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking.VmAllocationPolicy4DBinPacking;
+import dev.pratheeks.vmallocationsimulation.allocationpolicy.VmAllocationPolicyIndexedBestFit;
+import dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking.*;
+import dev.pratheeks.vmallocationsimulation.results.PerRunCsvResultSink;
+import dev.pratheeks.vmallocationsimulation.results.ResultSink;
+import dev.pratheeks.vmallocationsimulation.results.ResultsAggregator;
+import dev.pratheeks.vmallocationsimulation.results.SweepCsvResultSink;
+import dev.pratheeks.vmallocationsimulation.workload.StreamingWorkload;
+import dev.pratheeks.vmallocationsimulation.workload.TraceConverter;
+import dev.pratheeks.vmallocationsimulation.workload.TraceReplayWorkload;
+import dev.pratheeks.vmallocationsimulation.workload.UniformBatchWorkload;
+import dev.pratheeks.vmallocationsimulation.workload.Workload;
 import org.cloudsimplus.allocationpolicies.*;
+import org.cloudsimplus.util.Log;
 
 import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 
+/**
+ * Runs the allocation policy x host count x random seed sweep.
+ * <p>
+ * Options:
+ * <ul>
+ *     <li>{@code --threads=N} number of simulations to run concurrently (default: 1, as concurrent runs measure
+ *     their allocation times while competing for the CPUs)</li>
+ *     <li>{@code --resume} skip the runs whose results already exist</li>
+ *     <li>{@code --logs} write an event trace of each run under results/logs (level set by the {@code vmsim.trace}
+ *     system property: off, info or debug)</li>
+ *     <li>{@code --sweep-file=PATH} append the results of all runs to a single CSV file instead of one file per
+ *     run</li>
+ *     <li>{@code --workload=NAME} the VMs of each run: uniform, 3 VMs per host submitted at the start, the default;
+ *     streaming, a simulated day of VMs arriving and leaving, results written under results/streaming;
+ *     trace:FILE, replays a trace converted by {@link TraceConverter}, results written under results/trace/NAME</li>
+ *     <li>{@code --hosts=N,N,...} the host counts to run instead of the default ones</li>
+ *     <li>{@code --policies=NAME,NAME,...} the allocation policies to run instead of the default ones, among which
+ *     4DBinPackingSlo, the packing policy switching to a heuristic when the exact search would miss its latency
+ *     SLO, and 4DBinPackingParallel, the packing policy searching on all the CPUs</li>
+ *     <li>{@code --drain-fraction=F} take a share F of the hosts down for maintenance at once, at the start of the
+ *     run or halfway through a streaming or trace workload, and evacuate them in bandwidth-limited migration waves
+ *     instead of draining single hosts, results written under drain-PERCENT in the results directory of the
+ *     workload</li>
+ *     <li>{@code --fork=POLICY} place the VMs of each host count and seed once with POLICY and run the drain phase
+ *     of every policy from that same placement, uniform workload only, results written under fork-POLICY. Each
+ *     run still sets up its own simulation, see {@link SimulationSnapshot}.</li>
+ * </ul>
+ * <p>
+ * The allocation latency histograms and solver counters of each run are written under results/metrics, with their
+ * percentiles per policy and host count in results/metrics/summary.csv. The result rows themselves are summarized
+ * per policy and host count by {@link ResultsAggregator}.
+ * <p>
+ * Build with the simd Maven profile and run with {@code --add-modules jdk.incubator.vector} for the packing policies
+ * to test VMs against many hosts at once with SIMD instructions, see {@link FitKernel}.
+ */
 public class Main {
-    public static void main(String[] args) throws IOException, CsvRequiredFieldEmptyException, CsvDataTypeMismatchException {
+    private static final String TRACE_WORKLOAD_PREFIX = "trace:";
+    static final String[] ALLOCATION_POLICIES = new String[]{"BestFit", "FirstFit", "Simple", "RoundRobin",
+            "4DBinPacking", "4DFirstFitDecreasing", "4DBestFitDecreasing", "4DDotProduct", "4DL2Norm"};
+
+    public static void main(String[] args) throws InterruptedException, IOException {
 
-        String[] allocationPolicies = new String[]{"BestFit", "FirstFit", "Simple", "RoundRobin", "4DBinPacking"};
         int[] hostConfigs = new int[]{5, 10, 20, 40, 80, 100, 200, 500, 1000};
         long[] randomSeedConfigs = new long[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+        String[] allocationPolicies = ALLOCATION_POLICIES;
 
-        for (String allocationPolicy : allocationPolicies) {
-            for (int hostCount : hostConfigs) {
-                if(allocationPolicy.equals("4DBinPacking") && hostCount > 50) {
-                    continue;
-                }
-                for (long randomSeed : randomSeedConfigs) {
-                    VmAllocationPolicy vmAllocationPolicy = getVmAllocationPolicy(allocationPolicy);
-                    // Run the simulation
-                    new VmMigrationSimulation(vmAllocationPolicy, hostCount, randomSeed);
+        int threads = 1;
+        boolean resume = false;
+        boolean cellLogs = false;
+        String sweepFile = null;
+        String workload = "uniform";
+        double drainFraction = 0;
+        String forkPolicy = null;
+        for (String arg : args) {
+            if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else if (arg.equals("--resume")) {
+                resume = true;
+            } else if (arg.equals("--logs")) {
+                cellLogs = true;
+            } else if (arg.startsWith("--sweep-file=")) {
+                sweepFile = arg.substring("--sweep-file=".length());
+            } else if (arg.startsWith("--workload=")) {
+                workload = arg.substring("--workload=".length());
+            } else if (arg.startsWith("--hosts=")) {
+                hostConfigs = Arrays.stream(arg.substring("--hosts=".length()).split(","))
+                        .mapToInt(Integer::parseInt).toArray();
+            } else if (arg.startsWith("--policies=")) {
+                allocationPolicies = arg.substring("--policies=".length()).split(",");
+            } else if (arg.startsWith("--drain-fraction=")) {
+                drainFraction = Double.parseDouble(arg.substring("--drain-fraction=".length()));
+            } else if (arg.startsWith("--fork=")) {
+                forkPolicy = arg.substring("--fork=".length());
+            } else {
+                throw new IllegalArgumentException("Invalid argument: " + arg);
+            }
+        }
+
+        Workload.Factory workloadFactory = getWorkloadFactory(workload);
+        Path resultsDir = getResultsDir(workload);
+        if (drainFraction > 0) {
+            resultsDir = resultsDir.resolve("drain-" + Math.round(drainFraction * 100));
+        }
+        if (forkPolicy != null) {
+            resultsDir = resultsDir.resolve("fork-" + forkPolicy);
+        }
+
+        if (threads > 1) {
+            System.out.printf("Warning: allocation times of %d concurrent simulations are measured under CPU "
+                    + "contention, use --threads=1 to compare them%n", threads);
+        }
+        Log.setLevel(ch.qos.logback.classic.Level.WARN); // Limit log output
+        int failed;
+        try (ResultSink resultSink = sweepFile == null ? new PerRunCsvResultSink(resultsDir)
+                : new SweepCsvResultSink(Paths.get(sweepFile))) {
+            ExperimentSweep sweep = new ExperimentSweep(Main::getVmAllocationPolicy, workloadFactory, drainFraction,
+                    forkPolicy, resultSink, resultsDir, threads, resume, cellLogs);
+            for (String allocationPolicy : allocationPolicies) {
+                for (int hostCount : hostConfigs) {
+                    for (long randomSeed : randomSeedConfigs) {
+                        sweep.addCell(allocationPolicy, hostCount, randomSeed);
+                    }
                 }
             }
+            failed = sweep.run();
+        }
+        if (failed > 0) {
+            System.out.printf("%d simulations failed%n", failed);
+            System.exit(1);
+        }
+    }
+
+    public static Workload.Factory getWorkloadFactory(String workload) throws IOException {
+        if (workload.startsWith(TRACE_WORKLOAD_PREFIX)) {
+            return TraceReplayWorkload.factory(Paths.get(workload.substring(TRACE_WORKLOAD_PREFIX.length())));
+        }
+        return switch (workload) {
+            case "uniform" -> UniformBatchWorkload::forHosts;
+            case "streaming" -> StreamingWorkload::forOccupancy;
+            default -> throw new IllegalArgumentException("Invalid workload: " + workload);
+        };
+    }
+
+    private static Path getResultsDir(String workload) {
+        if (workload.equals("uniform")) {
+            return Paths.get("results");
+        }
+        if (workload.startsWith(TRACE_WORKLOAD_PREFIX)) {
+            String traceName = Paths.get(workload.substring(TRACE_WORKLOAD_PREFIX.length())).getFileName().toString();
+            int extension = traceName.lastIndexOf('.');
+            return Paths.get("results", "trace", extension > 0 ? traceName.substring(0, extension) : traceName);
         }
+        return Paths.get("results", workload);
     }
 
-    private static VmAllocationPolicy getVmAllocationPolicy(String allocationPolicy) {
+    public static VmAllocationPolicy getVmAllocationPolicy(String allocationPolicy) {
         return switch (allocationPolicy) {
             case "4DBinPacking" -> new VmAllocationPolicy4DBinPacking();
+            case "4DBinPackingSlo" -> new VmAllocationPolicy4DBinPackingSlo();
+            case "4DBinPackingParallel" -> new VmAllocationPolicy4DBinPackingParallel();
+            case "4DFirstFitDecreasing" -> new VmAllocationPolicy4DFirstFitDecreasing();
+            case "4DBestFitDecreasing" -> new VmAllocationPolicy4DBestFitDecreasing();
+            case "4DDotProduct" -> new VmAllocationPolicy4DDotProduct();
+            case "4DL2Norm" -> new VmAllocationPolicy4DL2Norm();
+            case "4DLocalSearch" -> new VmAllocationPolicy4DLocalSearch();
             case "BestFit" -> new VmAllocationPolicyBestFit();
+            case "IndexedBestFit" -> new VmAllocationPolicyIndexedBestFit();
             case "FirstFit" -> new VmAllocationPolicyFirstFit();
             case "Simple" -> new VmAllocationPolicySimple();
             // case "Random" -> new VmAllocationPolicyRandom();
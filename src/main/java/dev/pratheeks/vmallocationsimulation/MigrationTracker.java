@@ -0,0 +1,115 @@
+package dev.pratheeks.vmallocationsimulation;
+
+import dev.pratheeks.vmallocationsimulation.util.LongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Migrations of one simulation run that were requested but have not finished yet, keyed by VM ID.
+ * <p>
+ * The request of each migration is kept in parallel primitive arrays until its completion event arrives, then it
+ * is joined with the outcome into a result row. Slots of finished migrations are reused.
+ */
+public class MigrationTracker {
+    private static final int NO_SLOT = -1;
+    private static final int INITIAL_SLOTS = 16;
+
+    private final LongIntHashMap slotByVmId = new LongIntHashMap(INITIAL_SLOTS);
+    private long[] vmId = new long[INITIAL_SLOTS];
+    private double[] requestTime = new double[INITIAL_SLOTS];
+    private double[] allocationTime = new double[INITIAL_SLOTS];
+    private long[] fromHost = new long[INITIAL_SLOTS];
+    private long[] toHost = new long[INITIAL_SLOTS];
+    private long[] bytesMoved = new long[INITIAL_SLOTS];
+    private int[] freeSlots = new int[INITIAL_SLOTS];
+    private int freeSlotCount = 0;
+    private int slotCount = 0;
+
+    /**
+     * Records a requested migration
+     *
+     * @return the row of an earlier migration of the VM that had not finished yet, which will never be completed
+     * and is reported as failed, or null
+     */
+    public CSVBean requested(long vm, double time, double allocationTimeMillis, long sourceHost, long targetHost,
+                             long bytes) {
+        CSVBean superseded = null;
+        int slot = slotByVmId.get(vm, NO_SLOT);
+        if (slot != NO_SLOT) {
+            superseded = unfinishedRow(slot);
+        } else {
+            slot = takeSlot();
+            slotByVmId.put(vm, slot);
+        }
+        vmId[slot] = vm;
+        requestTime[slot] = time;
+        allocationTime[slot] = allocationTimeMillis;
+        fromHost[slot] = sourceHost;
+        toHost[slot] = targetHost;
+        bytesMoved[slot] = bytes;
+        return superseded;
+    }
+
+    /**
+     * @return the row of the finished migration of the VM, or null if no migration of it was requested
+     */
+    public CSVBean finished(long vm, double time, boolean successful) {
+        int slot = slotByVmId.remove(vm, NO_SLOT);
+        if (slot == NO_SLOT) {
+            return null;
+        }
+        freeSlots[freeSlotCount++] = slot;
+        return new CSVBean(vm, allocationTime[slot], true, fromHost[slot], toHost[slot],
+                time - requestTime[slot], successful, requestTime[slot], successful ? bytesMoved[slot] : 0);
+    }
+
+    public int getPendingCount() {
+        return slotByVmId.size();
+    }
+
+    /**
+     * Removes the migrations that never finished
+     *
+     * @return their rows, reported as failed with an unknown migration time of -1
+     */
+    public List<CSVBean> drainUnfinished() {
+        List<CSVBean> rows = new ArrayList<>(slotByVmId.size());
+        boolean[] free = new boolean[slotCount];
+        for (int i = 0; i < freeSlotCount; i++) {
+            free[freeSlots[i]] = true;
+        }
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (!free[slot]) {
+                rows.add(unfinishedRow(slot));
+            }
+        }
+        slotByVmId.clear();
+        freeSlotCount = 0;
+        slotCount = 0;
+        return rows;
+    }
+
+    private CSVBean unfinishedRow(int slot) {
+        return new CSVBean(vmId[slot], allocationTime[slot], true, fromHost[slot], toHost[slot],
+                -1, false, requestTime[slot], 0);
+    }
+
+    private int takeSlot() {
+        if (freeSlotCount > 0) {
+            return freeSlots[--freeSlotCount];
+        }
+        if (slotCount == vmId.length) {
+            int capacity = slotCount * 2;
+            vmId = Arrays.copyOf(vmId, capacity);
+            requestTime = Arrays.copyOf(requestTime, capacity);
+            allocationTime = Arrays.copyOf(allocationTime, capacity);
+            fromHost = Arrays.copyOf(fromHost, capacity);
+            toHost = Arrays.copyOf(toHost, capacity);
+            bytesMoved = Arrays.copyOf(bytesMoved, capacity);
+            freeSlots = Arrays.copyOf(freeSlots, capacity);
+        }
+        return slotCount++;
+    }
+}
@@ -0,0 +1,304 @@
+package dev.pratheeks.vmallocationsimulation;
+
+import dev.pratheeks.vmallocationsimulation.allocationpolicy.VmAllocationPolicyIndexedAbstract;
+import dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking.VmAllocationPolicy4DPackingAbstract;
+import dev.pratheeks.vmallocationsimulation.metrics.Metric;
+import dev.pratheeks.vmallocationsimulation.metrics.RunMetrics;
+import dev.pratheeks.vmallocationsimulation.util.LongIntHashMap;
+import org.cloudsimplus.allocationpolicies.VmAllocationPolicy;
+import org.cloudsimplus.hosts.Host;
+import org.cloudsimplus.vms.Vm;
+
+import java.util.*;
+
+/**
+ * Plans the evacuation of a group of hosts, such as the hosts taken down for maintenance, in waves of concurrent
+ * migrations from many source hosts at once.
+ * <p>
+ * Every migration streams at a fixed bandwidth and reserves it on its source and target hosts and, when it leaves
+ * its rack, on the uplinks of both racks, until it finishes. A wave takes as many VMs as the sources have
+ * bandwidth left for, places them with a single call to the allocation policy and starts the migrations whose
+ * target and links also have bandwidth left; the others wait for a later wave, planned when bandwidth is freed.
+ * <p>
+ * The hosts being evacuated are excluded from placement by the policies that support it. With the other policies
+ * a VM may be placed on another evacuated host, which then counts as a failed placement. A VM whose placement or
+ * migration fails {@link #MAX_PLACEMENT_ATTEMPTS} times is given up and stays on its host.
+ */
+public class MigrationWaveScheduler {
+    private static final int MAX_PLACEMENT_ATTEMPTS = 3;
+    private static final int NONE = -1;
+
+    private final VmAllocationPolicy policy;
+    private final RunMetrics metrics;
+    private final List<Host> drainingHosts;
+    private final Set<Host> draining;
+
+    private final LongIntHashMap hostIndexById;
+    private final long hostBandwidth;
+    private final long streamBandwidth;
+    private final int hostsPerRack;
+    private final long rackUplinkBandwidth;
+    /**
+     * Bandwidth reserved by the running migrations per host index and per rack, in Mbps
+     */
+    private final long[] hostReserved;
+    private final long[] rackReserved;
+
+    /**
+     * Source and target host indices of the running migrations by VM ID
+     */
+    private final LongIntHashMap sourceByVmId = new LongIntHashMap();
+    private final LongIntHashMap targetByVmId = new LongIntHashMap();
+    private final LongIntHashMap attemptsByVmId = new LongIntHashMap();
+    private final Set<Long> givenUp = new HashSet<>();
+    private int waves = 0;
+
+    /**
+     * @param hostList            every host of the datacenter, racks are consecutive runs of hostsPerRack hosts
+     * @param drainingHosts       hosts to evacuate
+     * @param hostBandwidth       migration bandwidth of a host, in and out, in Mbps
+     * @param streamBandwidth     bandwidth of a single migration, in Mbps
+     * @param rackUplinkBandwidth bandwidth of the uplink of a rack, in Mbps
+     */
+    public MigrationWaveScheduler(VmAllocationPolicy policy, List<Host> hostList, Collection<Host> drainingHosts,
+                                  long hostBandwidth, long streamBandwidth, int hostsPerRack,
+                                  long rackUplinkBandwidth, RunMetrics metrics) {
+        if (streamBandwidth > hostBandwidth || streamBandwidth > rackUplinkBandwidth) {
+            throw new IllegalArgumentException("A migration stream of " + streamBandwidth
+                    + " Mbps does not fit in the host or rack uplink bandwidth");
+        }
+        this.policy = policy;
+        this.metrics = metrics;
+        this.drainingHosts = new ArrayList<>(drainingHosts);
+        this.draining = new HashSet<>(drainingHosts);
+        this.hostBandwidth = hostBandwidth;
+        this.streamBandwidth = streamBandwidth;
+        this.hostsPerRack = hostsPerRack;
+        this.rackUplinkBandwidth = rackUplinkBandwidth;
+        hostIndexById = new LongIntHashMap(hostList.size());
+        for (int i = 0; i < hostList.size(); i++) {
+            hostIndexById.put(hostList.get(i).getId(), i);
+        }
+        hostReserved = new long[hostList.size()];
+        rackReserved = new long[(hostList.size() + hostsPerRack - 1) / hostsPerRack];
+
+        if (policy instanceof VmAllocationPolicyIndexedAbstract indexedPolicy) {
+            for (Host host : drainingHosts) {
+                indexedPolicy.setHostExcluded(host, true);
+            }
+        }
+    }
+
+    /**
+     * Places the VMs the sources have bandwidth for and reserves the bandwidth of the migrations that can start
+     */
+    public Wave planWave() {
+        // VMs the sources have bandwidth for, in host order
+        List<Vm> candidates = new ArrayList<>();
+        List<Host> sources = new ArrayList<>();
+        for (Host host : drainingHosts) {
+            long slots = (hostBandwidth - hostReserved[indexOf(host)]) / streamBandwidth;
+            int taken = 0;
+            for (Vm vm : host.getVmList()) {
+                if (taken == slots) {
+                    break;
+                }
+                if (!sourceByVmId.containsKey(vm.getId()) && !givenUp.contains(vm.getId())) {
+                    candidates.add(vm);
+                    taken++;
+                }
+            }
+            if (taken > 0) {
+                sources.add(host);
+            }
+        }
+        Wave wave = new Wave(candidates.size());
+        if (candidates.isEmpty()) {
+            return wave;
+        }
+
+        long preProcessingTime = 0;
+        if (policy instanceof VmAllocationPolicy4DPackingAbstract binPacking) {
+            long start = System.nanoTime();
+            binPacking.recalculatePacking(sources, candidates);
+            preProcessingTime = System.nanoTime() - start;
+            metrics.record(Metric.RECALCULATE_PACKING, preProcessingTime);
+        }
+        double preProcessingTimePerVm = ((double) preProcessingTime / candidates.size()) / 1_000_000.0;
+
+        for (Vm vm : candidates) {
+            Host source = vm.getHost();
+            long start = System.nanoTime();
+            final Host target = policy.findHostForVm(vm).orElse(Host.NULL);
+            long end = System.nanoTime();
+            metrics.record(Metric.FIND_HOST_FOR_VM, end - start);
+            double allocationTime = ((end - start) / 1_000_000.0) + preProcessingTimePerVm;
+
+            if (Host.NULL.equals(target) || draining.contains(target)) {
+                if (failedAttempt(vm)) {
+                    wave.unplaced.add(new PlannedMigration(vm, source, Host.NULL, allocationTime));
+                }
+                continue;
+            }
+            int sourceIndex = indexOf(source);
+            int targetIndex = indexOf(target);
+            if (!reserve(sourceIndex, targetIndex, 1)) {
+                wave.deferred++;
+                continue;
+            }
+            sourceByVmId.put(vm.getId(), sourceIndex);
+            targetByVmId.put(vm.getId(), targetIndex);
+            wave.migrations.add(new PlannedMigration(vm, source, target, allocationTime));
+        }
+        if (!wave.migrations.isEmpty()) {
+            wave.number = ++waves;
+        }
+        return wave;
+    }
+
+    /**
+     * Releases the bandwidth of a finished migration of this scheduler
+     *
+     * @return false if the migration was not started by this scheduler
+     */
+    public boolean migrationFinished(Vm vm, boolean successful) {
+        int sourceIndex = sourceByVmId.remove(vm.getId(), NONE);
+        if (sourceIndex == NONE) {
+            return false;
+        }
+        int targetIndex = targetByVmId.remove(vm.getId(), NONE);
+        reserve(sourceIndex, targetIndex, -1);
+        if (!successful) {
+            failedAttempt(vm);
+        }
+        return true;
+    }
+
+    /**
+     * Counts a failed placement or migration of the VM
+     *
+     * @return true if the VM is now given up
+     */
+    private boolean failedAttempt(Vm vm) {
+        int attempts = attemptsByVmId.get(vm.getId(), 0) + 1;
+        attemptsByVmId.put(vm.getId(), attempts);
+        if (attempts < MAX_PLACEMENT_ATTEMPTS) {
+            return false;
+        }
+        givenUp.add(vm.getId());
+        return true;
+    }
+
+    /**
+     * Adds (sign 1) or removes (sign -1) a migration stream on the hosts and rack uplinks it goes through
+     *
+     * @return false, reserving nothing, if it does not fit in the bandwidth left
+     */
+    private boolean reserve(int source, int target, int sign) {
+        int sourceRack = source / hostsPerRack;
+        int targetRack = target / hostsPerRack;
+        boolean crossesRacks = sourceRack != targetRack;
+        if (sign > 0 && (hostReserved[source] + streamBandwidth > hostBandwidth
+                || hostReserved[target] + streamBandwidth > hostBandwidth
+                || (crossesRacks && (rackReserved[sourceRack] + streamBandwidth > rackUplinkBandwidth
+                || rackReserved[targetRack] + streamBandwidth > rackUplinkBandwidth)))) {
+            return false;
+        }
+        long stream = sign * streamBandwidth;
+        hostReserved[source] += stream;
+        hostReserved[target] += stream;
+        if (crossesRacks) {
+            rackReserved[sourceRack] += stream;
+            rackReserved[targetRack] += stream;
+        }
+        return true;
+    }
+
+    private int indexOf(Host host) {
+        return hostIndexById.get(host.getId(), NONE);
+    }
+
+    public int getRunningCount() {
+        return sourceByVmId.size();
+    }
+
+    /**
+     * @return true while a VM of the evacuated hosts is neither migrating nor given up
+     */
+    public boolean hasPending() {
+        for (Host host : drainingHosts) {
+            for (Vm vm : host.getVmList()) {
+                if (!sourceByVmId.containsKey(vm.getId()) && !givenUp.contains(vm.getId())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true once every VM of the evacuated hosts has left them or been given up
+     */
+    public boolean isDone() {
+        return getRunningCount() == 0 && !hasPending();
+    }
+
+    public int getHostCount() {
+        return drainingHosts.size();
+    }
+
+    public int getGivenUpCount() {
+        return givenUp.size();
+    }
+
+    public int getWaveCount() {
+        return waves;
+    }
+
+    public static class Wave {
+        /**
+         * Number of the wave, 0 if it started no migration
+         */
+        private int number;
+        private final int candidates;
+        private final List<PlannedMigration> migrations = new ArrayList<>();
+        /**
+         * VMs given up in this wave, with no target host
+         */
+        private final List<PlannedMigration> unplaced = new ArrayList<>();
+        private int deferred;
+
+        private Wave(int candidates) {
+            this.candidates = candidates;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public int getCandidates() {
+            return candidates;
+        }
+
+        public List<PlannedMigration> getMigrations() {
+            return migrations;
+        }
+
+        public List<PlannedMigration> getUnplaced() {
+            return unplaced;
+        }
+
+        /**
+         * @return number of placed VMs left for a later wave for lack of bandwidth on their target or rack uplinks
+         */
+        public int getDeferred() {
+            return deferred;
+        }
+    }
+
+    /**
+     * A VM and the host it moves to, with the time it took to find that host in milliseconds
+     */
+    public record PlannedMigration(Vm vm, Host source, Host target, double allocationTime) {
+    }
+}
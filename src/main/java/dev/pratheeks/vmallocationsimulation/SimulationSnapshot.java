@@ -0,0 +1,234 @@
+package dev.pratheeks.vmallocationsimulation;
+
+import dev.pratheeks.vmallocationsimulation.util.LongIntHashMap;
+import dev.pratheeks.vmallocationsimulation.workload.VmRequest;
+import dev.pratheeks.vmallocationsimulation.workload.Workload;
+import org.cloudsimplus.hosts.Host;
+import org.cloudsimplus.vms.Vm;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * State of a simulation at the end of its initial allocation: the capacities of the hosts, the VMs with the host
+ * each was placed on and the state of the random generator of the run. Every simulation forked from a snapshot
+ * starts its drain phase from exactly the same placement, whatever its allocation policy.
+ * <p>
+ * Only the placement decisions are shared: a fork still builds its own CloudSim datacenter, broker, VMs and cloudlets
+ * and has the broker submit the VMs, which the allocation policy puts back on their snapshot hosts without
+ * searching. A fork therefore saves the search of the initial allocation of the fork policy, not the setup of the
+ * simulation; the {@link dev.pratheeks.vmallocationsimulation.metrics.Metric#SETUP} time of each run measures the
+ * difference.
+ * <p>
+ * Snapshots are taken before any migration is requested, so the format has no record of migrations in flight, and
+ * only of workloads submitted at the start, so no arrivals are left.
+ * <p>
+ * The snapshot is kept in its serialized form, immutable and shared by the forks running concurrently. Format,
+ * big-endian: a header of {@link #MAGIC}, {@link #VERSION}, the random seed of the run (long), the number of hosts
+ * and VMs (int) and the length of the random generator state (int); the random generator state; one record per
+ * host: PEs (int), RAM in MB, bandwidth in Mbps and storage in MB (long); then one record per VM in order of
+ * creation: VM ID (long), index of its host or -1 if it was not placed (int), PEs (int), RAM in MB, bandwidth in
+ * Mbps and size in MB (long).
+ */
+public class SimulationSnapshot {
+    private static final int MAGIC = 0x564D5353; // "VMSS"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 4 + 4 + 4;
+    private static final int HOST_BYTES = 4 + 8 + 8 + 8;
+    private static final int VM_BYTES = 8 + 4 + 4 + 8 + 8 + 8;
+    private static final int NO_HOST = -1;
+
+    private final byte[] bytes;
+    private final long randomSeed;
+    private final int hostCount;
+    private final int vmCount;
+    private final int randomStateLength;
+
+    private SimulationSnapshot(byte[] bytes) throws IOException {
+        this.bytes = bytes;
+        ByteBuffer header = ByteBuffer.wrap(bytes);
+        if (bytes.length < HEADER_BYTES || header.getInt() != MAGIC) {
+            throw new IOException("Not a simulation snapshot");
+        }
+        int version = header.getInt();
+        if (version != VERSION) {
+            throw new IOException("Simulation snapshot format version " + version + ", expected " + VERSION);
+        }
+        randomSeed = header.getLong();
+        hostCount = header.getInt();
+        vmCount = header.getInt();
+        randomStateLength = header.getInt();
+        if (bytes.length != HEADER_BYTES + randomStateLength + (long) hostCount * HOST_BYTES
+                + (long) vmCount * VM_BYTES) {
+            throw new IOException("Simulation snapshot is truncated: " + hostCount + " hosts and " + vmCount
+                    + " VMs expected");
+        }
+    }
+
+    /**
+     * @param vms the VMs of the run in order of creation, all of them created or failed
+     */
+    static SimulationSnapshot capture(long randomSeed, Random random, List<Host> hostList, List<Vm> vms) {
+        byte[] randomState = serialize(random);
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + randomState.length + hostList.size() * HOST_BYTES
+                + vms.size() * VM_BYTES);
+        buffer.putInt(MAGIC)
+                .putInt(VERSION)
+                .putLong(randomSeed)
+                .putInt(hostList.size())
+                .putInt(vms.size())
+                .putInt(randomState.length)
+                .put(randomState);
+        LongIntHashMap hostIndexById = new LongIntHashMap(hostList.size());
+        for (int i = 0; i < hostList.size(); i++) {
+            Host host = hostList.get(i);
+            hostIndexById.put(host.getId(), i);
+            buffer.putInt((int) host.getPesNumber())
+                    .putLong(host.getRam().getCapacity())
+                    .putLong(host.getBw().getCapacity())
+                    .putLong(host.getStorage().getCapacity());
+        }
+        for (Vm vm : vms) {
+            Host host = vm.getHost();
+            buffer.putLong(vm.getId())
+                    .putInt(Host.NULL.equals(host) ? NO_HOST : hostIndexById.get(host.getId(), NO_HOST))
+                    .putInt((int) vm.getPesNumber())
+                    .putLong(vm.getRam().getCapacity())
+                    .putLong(vm.getBw().getCapacity())
+                    .putLong(vm.getStorage().getCapacity());
+        }
+        try {
+            return new SimulationSnapshot(buffer.array());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes the snapshot through a temporary file, so an interrupted write never leaves a partial snapshot
+     */
+    public void write(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tempFile, bytes);
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static SimulationSnapshot read(Path file) throws IOException {
+        try {
+            return new SimulationSnapshot(Files.readAllBytes(file));
+        } catch (IOException e) {
+            throw new IOException(file + ": " + e.getMessage(), e);
+        }
+    }
+
+    public long getRandomSeed() {
+        return randomSeed;
+    }
+
+    public int getHostCount() {
+        return hostCount;
+    }
+
+    public int getVmCount() {
+        return vmCount;
+    }
+
+    /**
+     * @return a new random generator in the state the one of the run was in when the snapshot was taken
+     */
+    public Random restoreRandom() {
+        try (ObjectInputStream in = new ObjectInputStream(
+                new ByteArrayInputStream(bytes, HEADER_BYTES, randomStateLength))) {
+            in.setObjectInputFilter(ObjectInputFilter.Config.createFilter("java.util.Random;!*"));
+            return (Random) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Invalid random generator state in simulation snapshot", e);
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if the hosts do not have the capacities of the snapshot
+     */
+    public void checkHosts(List<Host> hostList) {
+        if (hostList.size() != hostCount) {
+            throw new IllegalArgumentException("Snapshot has " + hostCount + " hosts, not " + hostList.size());
+        }
+        ByteBuffer hosts = ByteBuffer.wrap(bytes, HEADER_BYTES + randomStateLength, hostCount * HOST_BYTES);
+        for (Host host : hostList) {
+            if (hosts.getInt() != host.getPesNumber() || hosts.getLong() != host.getRam().getCapacity()
+                    || hosts.getLong() != host.getBw().getCapacity()
+                    || hosts.getLong() != host.getStorage().getCapacity()) {
+                throw new IllegalArgumentException("Host " + host.getId() + " has other capacities than in the snapshot");
+            }
+        }
+    }
+
+    /**
+     * @return index in the host list of the host of each VM by VM ID, absent for the VMs that were not placed
+     */
+    public LongIntHashMap hostIndexByVmId() {
+        LongIntHashMap hostIndexByVmId = new LongIntHashMap(vmCount);
+        ByteBuffer vms = vmRecords();
+        for (int i = 0; i < vmCount; i++) {
+            long id = vms.getLong();
+            int hostIndex = vms.getInt();
+            vms.position(vms.position() + VM_BYTES - 8 - 4);
+            if (hostIndex != NO_HOST) {
+                hostIndexByVmId.put(id, hostIndex);
+            }
+        }
+        return hostIndexByVmId;
+    }
+
+    /**
+     * @return the VMs of the snapshot with their IDs, in order of creation, all submitted at the start and running
+     * until the simulation ends
+     */
+    public Workload workload() {
+        ByteBuffer vms = vmRecords();
+        return new Workload() {
+            private int next = 0;
+
+            @Override
+            public VmRequest next() {
+                if (next == vmCount) {
+                    return null;
+                }
+                next++;
+                long id = vms.getLong();
+                vms.getInt(); // Host, placed by the forked simulation
+                int pes = vms.getInt();
+                long ram = vms.getLong();
+                long bw = vms.getLong();
+                long size = vms.getLong();
+                return new VmRequest(id, 0, pes, ram, bw, size, Double.POSITIVE_INFINITY);
+            }
+
+            @Override
+            public double getDuration() {
+                return Double.POSITIVE_INFINITY;
+            }
+        };
+    }
+
+    private ByteBuffer vmRecords() {
+        return ByteBuffer.wrap(bytes, HEADER_BYTES + randomStateLength + hostCount * HOST_BYTES, vmCount * VM_BYTES)
+                .slice();
+    }
+
+    private static byte[] serialize(Random random) {
+        ByteArrayOutputStream randomState = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(randomState)) {
+            out.writeObject(random);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return randomState.toByteArray();
+    }
+}
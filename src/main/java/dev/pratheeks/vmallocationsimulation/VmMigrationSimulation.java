@@ -1,12 +1,16 @@
 package dev.pratheeks.vmallocationsimulation;
 
-import com.opencsv.bean.StatefulBeanToCsv;
-import com.opencsv.bean.StatefulBeanToCsvBuilder;
-import com.opencsv.exceptions.CsvDataTypeMismatchException;
-import com.opencsv.exceptions.CsvRequiredFieldEmptyException;
-import dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking.VmAllocationPolicy4DBinPacking;
+import dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking.VmAllocationPolicy4DPackingAbstract;
+import dev.pratheeks.vmallocationsimulation.metrics.Metric;
+import dev.pratheeks.vmallocationsimulation.metrics.RunMetrics;
+import dev.pratheeks.vmallocationsimulation.results.ResultSink;
+import dev.pratheeks.vmallocationsimulation.trace.EventTrace;
+import dev.pratheeks.vmallocationsimulation.util.LongIntHashMap;
+import dev.pratheeks.vmallocationsimulation.workload.VmRequest;
+import dev.pratheeks.vmallocationsimulation.workload.Workload;
 import org.cloudsimplus.allocationpolicies.VmAllocationPolicy;
 import org.cloudsimplus.brokers.DatacenterBrokerSimple;
+import org.cloudsimplus.cloudlets.Cloudlet;
 import org.cloudsimplus.cloudlets.CloudletSimple;
 import org.cloudsimplus.core.CloudSimPlus;
 import org.cloudsimplus.datacenters.DatacenterSimple;
@@ -18,16 +22,12 @@ import org.cloudsimplus.resources.Pe;
 import org.cloudsimplus.resources.PeSimple;
 import org.cloudsimplus.schedulers.cloudlet.CloudletSchedulerTimeShared;
 import org.cloudsimplus.schedulers.vm.VmSchedulerTimeShared;
-import org.cloudsimplus.util.Log;
 import org.cloudsimplus.utilizationmodels.UtilizationModelFull;
 import org.cloudsimplus.vms.Vm;
 import org.cloudsimplus.vms.VmSimple;
 
-import java.io.FileWriter;
 import java.io.IOException;
-import java.io.Writer;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 public class VmMigrationSimulation {
@@ -37,15 +37,36 @@ public class VmMigrationSimulation {
     private static final long HOST_STORAGE = 10_000_000; // 10 TB
     private static final long HOST_BW = 10_000; // 10 Gbps
 
-    private final int VMS;
-    private static final long VM_SIZE = 10_000; // 10 GB
-    private static final long VM_BW = 1000; // 1 Gbps
-    private static final long VM_RAM_MIN = 1000; // 1 GB
-    private static final long VM_RAM_MAX = 32_000; // 32 GB
-    private static final int VM_PES_MIN = 1;
-    private static final int VM_PES_MAX = 16;
-
+    private static final int VM_MIPS_PER_PE = 1000;
+    /**
+     * Length of the cloudlet of a VM that runs until the simulation ends
+     */
     private static final int CLOUDLET_LENGTH = 10_000_000;
+    private static final long BYTES_PER_MB = 1_000_000;
+
+    /**
+     * Seconds of arrivals submitted to the broker ahead of the simulation clock
+     */
+    private static final double SUBMISSION_WINDOW = 60;
+    /**
+     * Seconds an idle VM is kept before it is destroyed, when VMs have a finite lifetime
+     */
+    private static final double VM_DESTRUCTION_DELAY = 1;
+    /**
+     * Number of hosts drained over a run of limited duration, spread evenly so that the allocation latency is
+     * measured across the occupancy levels the run goes through
+     */
+    private static final int DRAINS_PER_TIMED_RUN = 100;
+
+    /**
+     * Hosts per rack, whose migrations to other racks share the rack uplink
+     */
+    private static final int HOSTS_PER_RACK = 20;
+    private static final long RACK_UPLINK_BW = 40_000; // 40 Gbps
+    /**
+     * Bandwidth of one migration, CloudSim migrates a VM at half of the bandwidth of its target host
+     */
+    private static final long MIGRATION_STREAM_BW = HOST_BW / 2;
 
     /**
      * Should perform at least 100 VM migrations (allocations) to properly assess the allocation algorithm
@@ -60,56 +81,191 @@ public class VmMigrationSimulation {
     private final DatacenterSimple datacenter;
     private final DatacenterBrokerSimple broker;
     private final List<Host> hostList = new ArrayList<>();
+    /**
+     * VMs submitted up front, kept for tracing their initial allocation; empty for workloads of limited duration,
+     * whose VMs are only referenced by the broker
+     */
     private final List<Vm> vmList = new ArrayList<>();
     private boolean migrationRequested = false;
 
+    private final Workload workload;
+    /**
+     * Next VM of the workload, not submitted yet, null when there are no more
+     */
+    private VmRequest nextRequest;
+    private double lastSubmittedArrival = Double.NEGATIVE_INFINITY;
+    private int submittedVms = 0;
+    /**
+     * Simulation time between two drains of a run of limited duration, 0 to drain one host after the other
+     */
+    private final double drainInterval;
+    private double nextDrainTime;
+
+    /**
+     * Share of the hosts taken down for maintenance at once, 0 to drain single hosts instead
+     */
+    private final double drainFraction;
+    /**
+     * Simulation time of the maintenance: the start of the run, or its middle for a run of limited duration
+     */
+    private final double maintenanceTime;
+    /**
+     * Evacuates the hosts under maintenance once it started, null before
+     */
+    private MigrationWaveScheduler maintenance;
+    private double maintenanceStart;
+    private int maintenanceVms;
+    private boolean evacuationFinished = false;
+
     /**
      * Random seed decides the random VM configuration for the simulation run
      */
+    private final long randomSeed;
     private final Random random;
 
-    private final List<CSVBean> csvLines= new ArrayList<>();
+    /**
+     * Snapshot the simulation was forked from, whose VM placement replaces the initial allocation, null for a
+     * simulation run from scratch
+     */
+    private final SimulationSnapshot forkedFrom;
+    private final long creationNanos = System.nanoTime();
+    private boolean setupRecorded = false;
+    private boolean placementRestored = false;
+    /**
+     * Stop once the VMs are allocated, keeping the state of the simulation in {@link #snapshot}
+     */
+    private final boolean snapshotOnly;
+    private SimulationSnapshot snapshot;
+
+    /**
+     * Receives the result rows as the VMs are allocated
+     */
+    private final ResultSink.RunWriter results;
+
+    /**
+     * Requested migrations waiting for their completion event, which completes their result rows
+     */
+    private final MigrationTracker migrations = new MigrationTracker();
+
+    /**
+     * Event trace of this simulation run, so that concurrent runs neither interleave nor wait on stdout
+     */
+    private final EventTrace trace;
+
+    /**
+     * Latency histograms and solver counters of this simulation run
+     */
+    private final RunMetrics metrics;
+
+    public VmMigrationSimulation(VmAllocationPolicy vmAllocationAlgo, int hostCount, long randomSeed,
+                                 Workload.Factory workloadFactory, double drainFraction, EventTrace trace,
+                                 RunMetrics metrics, ResultSink resultSink) throws IOException {
+        this(vmAllocationAlgo, hostCount, randomSeed, new Random(randomSeed), workloadFactory, null, false,
+                drainFraction, trace, metrics, resultSink);
+    }
+
+    /**
+     * Runs the drain phase of a simulation from a snapshot of its initial allocation: the VMs start on the hosts they
+     * were on in the snapshot, whatever the allocation policy, which only places the migrated VMs
+     */
+    public VmMigrationSimulation(VmAllocationPolicy vmAllocationAlgo, SimulationSnapshot snapshot,
+                                 double drainFraction, EventTrace trace, RunMetrics metrics,
+                                 ResultSink resultSink) throws IOException {
+        this(vmAllocationAlgo, snapshot.getHostCount(), snapshot.getRandomSeed(), snapshot.restoreRandom(),
+                (hostCount, pesPerHost, random) -> snapshot.workload(), snapshot, false, drainFraction, trace,
+                metrics, resultSink);
+    }
 
-    public VmMigrationSimulation(VmAllocationPolicy vmAllocationAlgo, int hostCount, long randomSeed) throws IOException, CsvRequiredFieldEmptyException, CsvDataTypeMismatchException {
+    /**
+     * Creates and allocates the VMs of a simulation, then stops
+     *
+     * @return the state of the simulation once the VMs are allocated, to fork the simulations of every policy from
+     * @throws IllegalArgumentException if the workload has VMs arriving later
+     */
+    public static SimulationSnapshot snapshot(VmAllocationPolicy vmAllocationAlgo, int hostCount, long randomSeed,
+                                              Workload.Factory workloadFactory) throws IOException {
+        return new VmMigrationSimulation(vmAllocationAlgo, hostCount, randomSeed, new Random(randomSeed),
+                workloadFactory, null, true, 0, EventTrace.disabled(), new RunMetrics(), null).snapshot;
+    }
+
+    private VmMigrationSimulation(VmAllocationPolicy vmAllocationAlgo, int hostCount, long randomSeed, Random random,
+                                  Workload.Factory workloadFactory, SimulationSnapshot forkedFrom,
+                                  boolean snapshotOnly, double drainFraction, EventTrace trace, RunMetrics metrics,
+                                  ResultSink resultSink) throws IOException {
         String allocationAlgoName = vmAllocationAlgo.getClass().getSimpleName();
         HOSTS = hostCount;
-        VMS = HOSTS * 3; // 3 times the host count
-        random = new Random(randomSeed);
-
-        System.out.printf("Starting simulation with %d Hosts with %d VMs for allocation algorithm: %s. Random seed: %d%n",
-                HOSTS, VMS, allocationAlgoName, randomSeed);
+        this.drainFraction = drainFraction;
+        this.randomSeed = randomSeed;
+        this.random = random;
+        this.forkedFrom = forkedFrom;
+        this.snapshotOnly = snapshotOnly;
+        workload = workloadFactory.create(HOSTS, HOST_PES, random);
+        if (snapshotOnly && Double.isFinite(workload.getDuration())) {
+            throw new IllegalArgumentException("Only workloads submitted at the start can be forked");
+        }
+        this.trace = trace;
+        this.metrics = metrics;
 
-        Log.setLevel(ch.qos.logback.classic.Level.WARN); // Limit log output
         simulation = new CloudSimPlus();
+        trace.setClock(simulation::clock);
+        trace.simulationStart(HOSTS, randomSeed);
+
+        if (vmAllocationAlgo instanceof VmAllocationPolicy4DPackingAbstract binPacking) {
+            binPacking.setTrace(trace);
+            binPacking.setMetrics(metrics);
+        }
         datacenter = createDatacenter(vmAllocationAlgo);
         broker = new DatacenterBrokerSimple(simulation);
+        if (forkedFrom != null) {
+            forkedFrom.checkHosts(hostList);
+            LongIntHashMap hostIndexByVmId = forkedFrom.hostIndexByVmId();
+            vmAllocationAlgo.setFindHostForVmFunction((policy, vm) -> {
+                int hostIndex = hostIndexByVmId.get(vm.getId(), -1);
+                return hostIndex == -1 ? Optional.empty() : Optional.of(hostList.get(hostIndex));
+            });
+        }
 
-        createAndSubmitVms();
-        createAndSubmitCloudlets();
+        if (Double.isFinite(workload.getDuration())) {
+            // VMs leave when their cloudlet is done and the broker waits for the VMs still to arrive
+            broker.setVmDestructionDelay(VM_DESTRUCTION_DELAY);
+            broker.setShutdownWhenIdle(false);
+            simulation.terminateAt(workload.getDuration());
+            drainInterval = workload.getDuration() / DRAINS_PER_TIMED_RUN;
+            maintenanceTime = workload.getDuration() / 2;
+        } else {
+            drainInterval = 0;
+            maintenanceTime = 0;
+        }
+        nextDrainTime = drainInterval;
+        nextRequest = workload.next();
+        submitArrivals();
 
         // Set up a clock listener to trigger the first migration after a certain time
         simulation.addOnClockTickListener(this::clockTickListener);
         // Event listener to set up VM migration after all VM migrations of a Host is finished
         datacenter.addOnVmMigrationFinishListener(this::vmMigrationFinishListener);
 
-        simulation.start();
-
-        // new CloudletsTableBuilder(broker.getCloudletFinishedList()).build();
-        System.out.printf("Simulation finished with %d VM migrations. Of which %d migrations failed!%n", totalNumberOfAllocations, failedVmMigrations);
-
-        // Writing the output to CSV
-        String outputDir = "results/" + allocationAlgoName;
-        Files.createDirectories(Paths.get(outputDir));
-        String csvFileName = outputDir + "/" + allocationAlgoName + "_hosts_" + HOSTS + "_" + randomSeed + ".csv";
-        Writer writer = new FileWriter(csvFileName);
-        var mappingStrategy = new CustomColumnPositionStrategy<CSVBean>();
-        mappingStrategy.setType(CSVBean.class);
-        StatefulBeanToCsv<CSVBean> beanToCsv = new StatefulBeanToCsvBuilder<CSVBean>(writer)
-                .withMappingStrategy(mappingStrategy)
-                .withApplyQuotesToAll(false)
-                .build();
-        beanToCsv.write(csvLines);
-        writer.close();
+        // Opened once nothing but the simulation itself can fail, which aborts the run
+        this.results = snapshotOnly ? null : resultSink.openRun(allocationAlgoName, HOSTS, randomSeed);
+        try {
+            simulation.start();
+            if (snapshotOnly) {
+                return;
+            }
+
+            // new CloudletsTableBuilder(broker.getCloudletFinishedList()).build();
+            for (CSVBean row : migrations.drainUnfinished()) {
+                writeResult(row);
+            }
+            trace.simulationEnd(submittedVms, totalNumberOfAllocations, failedVmMigrations);
+        } catch (RuntimeException | Error e) {
+            if (results != null) {
+                results.abort();
+            }
+            throw e;
+        }
+
+        results.close();
     }
 
     private DatacenterSimple createDatacenter(VmAllocationPolicy vmAllocationAlgo) {
@@ -128,77 +284,157 @@ public class VmMigrationSimulation {
                 .setVmScheduler(new VmSchedulerTimeShared());
     }
 
-    private void createAndSubmitVms() {
-        for (int i = 0; i < VMS; i++) {
-            vmList.add(createVm());
+    /**
+     * Submits the VMs of the workload arriving within the submission window, each with its cloudlet, delayed until
+     * their arrival time. At least one VM is always submitted ahead while any are left, so that its arrival keeps
+     * the clock ticking until the next call.
+     */
+    private void submitArrivals() {
+        double now = simulation.clock();
+        List<Vm> vms = new ArrayList<>();
+        List<Cloudlet> cloudlets = new ArrayList<>();
+        while (nextRequest != null && (nextRequest.getArrivalTime() <= now + SUBMISSION_WINDOW
+                || (vms.isEmpty() && lastSubmittedArrival <= now))) {
+            double delay = Math.max(0, nextRequest.getArrivalTime() - now);
+            Vm vm = createVm(nextRequest);
+            Cloudlet cloudlet = createCloudlet(nextRequest, vm);
+            vm.setSubmissionDelay(delay);
+            cloudlet.setSubmissionDelay(delay);
+            vms.add(vm);
+            cloudlets.add(cloudlet);
+            lastSubmittedArrival = nextRequest.getArrivalTime();
+            nextRequest = workload.next();
+        }
+        if (vms.isEmpty()) {
+            return;
+        }
+        broker.submitVmList(vms);
+        for (int i = 0; i < vms.size(); i++) {
+            broker.bindCloudletToVm(cloudlets.get(i), vms.get(i));
+        }
+        broker.submitCloudletList(cloudlets);
+        submittedVms += vms.size();
+        if (drainInterval == 0) {
+            vmList.addAll(vms);
         }
-        broker.submitVmList(vmList);
     }
 
-    private Vm createVm() {
-        // Generate random VM resource requirements based on the host's capacity (10%-40%)
-        int pes = VM_PES_MIN + random.nextInt(VM_PES_MAX - VM_PES_MIN + 1);
-        long ram = VM_RAM_MIN + (long) (random.nextDouble() * (VM_RAM_MAX - VM_RAM_MIN));
-
-        Vm vm = new VmSimple(1000, pes) // 1000 MIPS per PE
-                .setRam(ram)
-                .setSize(VM_SIZE)
-                .setBw(VM_BW)
+    private Vm createVm(VmRequest request) {
+        Vm vm = new VmSimple(VM_MIPS_PER_PE, request.getPes())
+                .setRam(request.getRam())
+                .setSize(request.getSize())
+                .setBw(request.getBw())
                 .setCloudletScheduler(new CloudletSchedulerTimeShared());
+        if (request.getId() != VmRequest.NO_ID) {
+            vm.setId(request.getId());
+        }
         return vm;
     }
 
-    private void createAndSubmitCloudlets() {
-        for (Vm vm : vmList) {
-            var cloudlet = new CloudletSimple(CLOUDLET_LENGTH, vm.getPesNumber())
-                    .setUtilizationModel(new UtilizationModelFull());
-            broker.bindCloudletToVm(cloudlet, vm);
-            broker.submitCloudlet(cloudlet);
-        }
+    /**
+     * @return a cloudlet using all the PEs of the VM for its lifetime, or until the end of a run of limited
+     * duration if the lifetime is unlimited
+     */
+    private Cloudlet createCloudlet(VmRequest request, Vm vm) {
+        double lifetime = Double.isInfinite(request.getLifetime()) ? workload.getDuration() : request.getLifetime();
+        long length = Double.isInfinite(lifetime) ? CLOUDLET_LENGTH
+                : Math.max(1, (long) Math.ceil(lifetime * VM_MIPS_PER_PE));
+        return new CloudletSimple(length, vm.getPesNumber())
+                .setUtilizationModel(new UtilizationModelFull());
     }
 
     /**
-     * Print initial Vm allocation and request migration of VMs in a single randomly selected host
+     * Trace initial Vm allocation and request migration of VMs in a single randomly selected host
      */
     private void clockTickListener(EventInfo info) {
-        if (migrationRequested) {
+        submitArrivals();
+        if (!setupRecorded) {
+            metrics.record(Metric.SETUP, System.nanoTime() - creationNanos);
+            setupRecorded = true;
+        }
+        if (snapshotOnly) {
+            if (snapshot == null) {
+                snapshot = SimulationSnapshot.capture(randomSeed, random, hostList, vmList);
+                simulation.terminate();
+            }
+            return;
+        }
+        if (forkedFrom != null && !placementRestored) {
+            // Back to the policy for the migrations
+            datacenter.getVmAllocationPolicy().setFindHostForVmFunction(null);
+            placementRestored = true;
+        }
+        if (drainFraction > 0) {
+            if (maintenance == null && info.getTime() >= maintenanceTime) {
+                traceInitialAllocation();
+                startMaintenance();
+            } else if (maintenance != null && maintenance.getRunningCount() == 0) {
+                // VMs of the hosts under maintenance may also leave when their lifetime ends
+                startWave();
+            }
             return;
         }
-        // Printing VM initial allocation
-        System.out.println("#### INITIAL ALLOCATION ####");
-        for (Vm vm : vmList) {
-            System.out.printf("VM %d\t:: Host %d \t:: %d core,\t %d GB,\t %d Mbps%n", vm.getId(), vm.getHost().getId(),
-                    vm.getPesNumber(), vm.getRam().getCapacity(), vm.getBw().getCapacity());
+        if (drainInterval > 0) {
+            if (info.getTime() >= nextDrainTime) {
+                nextDrainTime = info.getTime() + drainInterval;
+                drainRandomHost();
+            }
+            return;
         }
+        if (migrationRequested) {
+            return;
+        }
+        traceInitialAllocation();
         migrateVmsInAHost(info);
         migrationRequested = true;
     }
+
+    private void traceInitialAllocation() {
+        if (trace.isDebugEnabled()) {
+            for (Vm vm : vmList) {
+                trace.initialAllocation(vm.getId(), vm.getHost().getId(), vm.getPesNumber(), vm.getRam().getCapacity(),
+                        vm.getBw().getCapacity());
+            }
+        }
+    }
     /**
      * Migrate VMs in hosts until the required number of migrations for a simulation is reached.
      * VMs will be migrated when one host is finished migrating all its VMs
      */
     private void vmMigrationFinishListener(DatacenterVmMigrationEventInfo info){
-        System.out.printf("##### VM migration finish listener: Current time: %f, \t VM: %d, \t Successful: %b%n",
-                info.getTime(), info.getVm().getId(), info.isMigrationSuccessful());
+        trace.migrationFinished(info.getVm().getId(), info.isMigrationSuccessful());
+        CSVBean row = migrations.finished(info.getVm().getId(), info.getTime(), info.isMigrationSuccessful());
+        if (row != null) {
+            writeResult(row);
+        }
         if(!info.isMigrationSuccessful()){
             failedVmMigrations++;
         }
         currentlyMigratingVMCount--;
-        if(currentlyMigratingVMCount <= 2){
+        if (maintenance != null) {
+            if (maintenance.migrationFinished(info.getVm(), info.isMigrationSuccessful())) {
+                startWave();
+            }
+            return;
+        }
+        if(drainInterval == 0 && currentlyMigratingVMCount <= 2){
             migrateVmsInAHost(info);
         }
     }
 
     private void migrateVmsInAHost(EventInfo info){
         if (totalNumberOfAllocations < MINIMUM_ALLOCATIONS_PER_SIMULATION) {
-            System.out.printf("\n##### Scheduling VM migration in a host... Current time: %f%n", info.getTime());
-            Host sourceHost = selectRandomHostWithVms();
-            if (sourceHost == null) {
-                System.out.println("!!!!! ERROR: No VMs to migrate.");
-                return;
-            }
-            migrateAllVmsFromHost(sourceHost);
+            drainRandomHost();
+        }
+    }
+
+    private void drainRandomHost() {
+        Host sourceHost = selectRandomHostWithVms();
+        if (sourceHost == null) {
+            trace.noVmsToMigrate();
+            return;
         }
+        migrateAllVmsFromHost(sourceHost);
     }
 
     private Host selectRandomHostWithVms() {
@@ -216,46 +452,133 @@ public class VmMigrationSimulation {
 
     private void migrateAllVmsFromHost(Host sourceHost) {
 
-        System.out.printf("#>>> Migration command received to migrate VMs in Host %d <<<%n", sourceHost.getId());
-
         List<Vm> vmsToMigrate = sourceHost.getVmList();
+        trace.drainScheduled(sourceHost.getId(), vmsToMigrate.size());
         long preProcessingTime = 0;
 
         VmAllocationPolicy vmAllocationPolicy = datacenter.getVmAllocationPolicy();
 
-        if(vmAllocationPolicy.getClass().getSimpleName().equals("VmAllocationPolicy4DBinPacking")){
+        if(vmAllocationPolicy instanceof VmAllocationPolicy4DPackingAbstract binPacking){
             long start = System.nanoTime();
-            ((VmAllocationPolicy4DBinPacking)vmAllocationPolicy).recalculatePacking(sourceHost);
+            binPacking.recalculatePacking(sourceHost);
             long end = System.nanoTime();
             preProcessingTime = end-start;
+            metrics.record(Metric.RECALCULATE_PACKING, preProcessingTime);
         }
 
         double preProcessingTimePerVm = ((double) preProcessingTime / vmsToMigrate.size()) / 1_000_000.0;
 
-        System.out.println("##### VMs to migrate: " + vmsToMigrate.size());
-        System.out.println("##### Pre-processing time per VM: " + preProcessingTimePerVm + " ms");
+        if (trace.isInfoEnabled()) {
+            trace.drainPlanned(sourceHost.getId(), vmsToMigrate.size(), preProcessingTime, busyPesPermille());
+        }
 
         for (Vm vm : sourceHost.getVmList()) {
             // Allocating a host for the VM in source host
             long start = System.nanoTime();
             final var targetHost = vmAllocationPolicy.findHostForVm(vm).orElse(Host.NULL);
             long end = System.nanoTime();
+            metrics.record(Metric.FIND_HOST_FOR_VM, end - start);
             totalNumberOfAllocations++;
 
             double allocationTime = ((end-start) / 1_000_000.0) + preProcessingTimePerVm;
 
             if (Host.NULL.equals(targetHost)) {
-                System.out.printf("!!!!! No suitable host found for VM %d%n", vm.getId());
-                csvLines.add(new CSVBean(vm.getId(), allocationTime, false,
-                        sourceHost.getId(), -1L, 0, false));
+                trace.noSuitableHost(vm.getId(), sourceHost.getId());
+                writeResult(new CSVBean(vm.getId(), allocationTime, false,
+                        sourceHost.getId(), -1L, 0, false, simulation.clock(), 0));
                 continue;
             }
-            // TODO: Get migration time and migration status from migration completion event
-            csvLines.add(new CSVBean(vm.getId(), allocationTime, true,
-                    sourceHost.getId(), targetHost.getId(), 0, true));
-            System.out.printf(">>>> Migrating VM %d from Host %d to Host %d%n", vm.getId(), sourceHost.getId(), targetHost.getId());
-            datacenter.requestVmMigration(vm, targetHost);
-            currentlyMigratingVMCount++;
+            requestMigration(vm, sourceHost, targetHost, allocationTime);
+        }
+    }
+
+    /**
+     * Takes a random share of the hosts down for maintenance and starts evacuating them
+     */
+    private void startMaintenance() {
+        List<Host> hosts = new ArrayList<>(hostList);
+        Collections.shuffle(hosts, random);
+        List<Host> drainingHosts = hosts.subList(0, (int) Math.min(HOSTS, Math.ceil(drainFraction * HOSTS)));
+        int vms = 0;
+        for (Host host : drainingHosts) {
+            vms += host.getVmList().size();
+        }
+        maintenance = new MigrationWaveScheduler(datacenter.getVmAllocationPolicy(), hostList, drainingHosts,
+                HOST_BW, MIGRATION_STREAM_BW, HOSTS_PER_RACK, RACK_UPLINK_BW, metrics);
+        maintenanceVms = vms;
+        maintenanceStart = simulation.clock();
+        trace.maintenanceStarted(drainingHosts.size(), vms);
+        startWave();
+    }
+
+    /**
+     * Starts the migrations the bandwidth freed allows for. When none are running, plans waves until some start or
+     * every VM left under maintenance is given up, so that the evacuation never stalls.
+     */
+    private void startWave() {
+        if (evacuationFinished) {
+            return;
+        }
+        do {
+            MigrationWaveScheduler.Wave wave = maintenance.planWave();
+            if (wave.getCandidates() == 0) {
+                break;
+            }
+            totalNumberOfAllocations += wave.getCandidates();
+            for (MigrationWaveScheduler.PlannedMigration unplaced : wave.getUnplaced()) {
+                trace.noSuitableHost(unplaced.vm().getId(), unplaced.source().getId());
+                writeResult(new CSVBean(unplaced.vm().getId(), unplaced.allocationTime(), false,
+                        unplaced.source().getId(), -1L, 0, false, simulation.clock(), 0));
+            }
+            for (MigrationWaveScheduler.PlannedMigration migration : wave.getMigrations()) {
+                requestMigration(migration.vm(), migration.source(), migration.target(), migration.allocationTime());
+            }
+            trace.wavePlanned(wave.getNumber(), wave.getCandidates(), wave.getMigrations().size(),
+                    wave.getDeferred(), wave.getUnplaced().size());
+        } while (maintenance.getRunningCount() == 0 && maintenance.hasPending());
+
+        if (maintenance.isDone()) {
+            evacuationFinished = true;
+            metrics.record(Metric.EVACUATION_TIME, (long) ((simulation.clock() - maintenanceStart) * 1000));
+            trace.evacuationFinished(maintenance.getHostCount(), maintenanceVms, maintenance.getGivenUpCount(),
+                    maintenance.getWaveCount());
+        }
+    }
+
+    /**
+     * Requests the migration of a VM; its result row is written when the migration finishes, with its real duration
+     * and outcome
+     */
+    private void requestMigration(Vm vm, Host sourceHost, Host targetHost, double allocationTime) {
+        CSVBean superseded = migrations.requested(vm.getId(), simulation.clock(), allocationTime,
+                sourceHost.getId(), targetHost.getId(), vm.getRam().getCapacity() * BYTES_PER_MB);
+        if (superseded != null) {
+            writeResult(superseded);
+        }
+        trace.migrationRequested(vm.getId(), sourceHost.getId(), targetHost.getId());
+        datacenter.requestVmMigration(vm, targetHost);
+        currentlyMigratingVMCount++;
+    }
+
+    /**
+     * @return share of the PEs of the datacenter allocated to VMs, in thousandths
+     */
+    private long busyPesPermille() {
+        long freePes = 0;
+        long totalPes = 0;
+        for (Host host : hostList) {
+            freePes += host.getFreePesNumber();
+            totalPes += host.getPesNumber();
+        }
+        return totalPes == 0 ? 0 : (totalPes - freePes) * 1000 / totalPes;
+    }
+
+    private void writeResult(CSVBean row) {
+        try {
+            results.write(row);
+        } catch (IOException e) {
+            // Simulation listeners cannot throw checked exceptions
+            throw new UncheckedIOException(e);
         }
     }
 }
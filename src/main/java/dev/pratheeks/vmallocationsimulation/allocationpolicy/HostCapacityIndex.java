@@ -0,0 +1,262 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy;
+
+import dev.pratheeks.vmallocationsimulation.util.LongIntHashMap;
+import org.cloudsimplus.hosts.Host;
+import org.cloudsimplus.vms.Vm;
+
+import java.util.*;
+
+/**
+ * Index over the free PEs, RAM and bandwidth of the hosts of a datacenter, to find a host for a VM without scanning
+ * the whole host list.
+ * <p>
+ * A segment tree over the host list keeps the largest free capacity of each dimension per range of hosts, which
+ * finds the first host in list order that fits a VM in O(log n). Hosts are also bucketed by free PEs, each bucket
+ * sorted by free RAM, which finds the host with the fewest free PEs, then the least free RAM, in O(p log n) for p
+ * distinct PE counts.
+ * <p>
+ * The index only learns about changes to a host through {@link #update(Host)}, so every candidate is confirmed
+ * with {@link Host#isSuitableForVm(Vm)} and refreshed when its indexed capacity turns out to be stale.
+ * Capacity reserved out of band, such as for a VM migrating in, can therefore only cost extra checks; capacity
+ * freed out of band is missed until the host is updated.
+ * <p>
+ * Hosts can be {@link #setExcluded(Host, boolean) excluded}, such as hosts being drained, they are then never found.
+ */
+public class HostCapacityIndex {
+    private static final int INDEX_BITS = 24;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+
+    private final List<Host> hosts;
+    private final LongIntHashMap hostIndexById;
+    private final long[] freePes;
+    private final long[] freeRam;
+    private final long[] freeBw;
+    private final boolean[] excluded;
+
+    /**
+     * Segment tree of the largest free capacity per dimension, node i covers nodes 2i and 2i+1, leaves start at
+     * leafCount
+     */
+    private final int leafCount;
+    private final long[] maxFreePes;
+    private final long[] maxFreeRam;
+    private final long[] maxFreeBw;
+
+    /**
+     * Hosts by free PEs, each bucket holds (free RAM, host index) packed into a long, see {@link #bucketKey(int)}
+     */
+    private final TreeSet<Long>[] byFreePes;
+
+    @SuppressWarnings("unchecked")
+    public HostCapacityIndex(List<? extends Host> hosts) {
+        if (hosts.size() > INDEX_MASK) {
+            throw new IllegalArgumentException("Too many hosts to index: " + hosts.size());
+        }
+        this.hosts = new ArrayList<>(hosts);
+        int hostCount = hosts.size();
+        hostIndexById = new LongIntHashMap(hostCount);
+        freePes = new long[hostCount];
+        freeRam = new long[hostCount];
+        freeBw = new long[hostCount];
+        excluded = new boolean[hostCount];
+
+        leafCount = Math.max(1, Integer.highestOneBit(Math.max(1, hostCount - 1)) << 1);
+        maxFreePes = new long[2 * leafCount];
+        maxFreeRam = new long[2 * leafCount];
+        maxFreeBw = new long[2 * leafCount];
+        Arrays.fill(maxFreePes, -1);
+        Arrays.fill(maxFreeRam, -1);
+        Arrays.fill(maxFreeBw, -1);
+
+        long maxPes = 0;
+        for (Host host : hosts) {
+            maxPes = Math.max(maxPes, host.getPesNumber());
+        }
+        byFreePes = new TreeSet[(int) maxPes + 1];
+        for (int pes = 0; pes <= maxPes; pes++) {
+            byFreePes[pes] = new TreeSet<>();
+        }
+
+        for (int i = 0; i < hostCount; i++) {
+            Host host = this.hosts.get(i);
+            hostIndexById.put(host.getId(), i);
+            freePes[i] = host.getFreePesNumber();
+            freeRam[i] = host.getRam().getAvailableResource();
+            freeBw[i] = host.getBw().getAvailableResource();
+            setLeaf(i);
+            byFreePes[(int) freePes[i]].add(bucketKey(i));
+        }
+        for (int node = leafCount - 1; node > 0; node--) {
+            pull(node);
+        }
+    }
+
+    public int size() {
+        return hosts.size();
+    }
+
+    /**
+     * @return the position of the host in the host list, or -1 if it is not indexed
+     */
+    public int indexOf(Host host) {
+        return hostIndexById.get(host.getId(), -1);
+    }
+
+    /**
+     * Re-reads the free capacity of a host after VMs were placed on or removed from it
+     */
+    public void update(Host host) {
+        int index = indexOf(host);
+        if (index >= 0) {
+            refresh(index);
+        }
+    }
+
+    /**
+     * Excludes a host from the search, or includes it again
+     */
+    public void setExcluded(Host host, boolean exclude) {
+        int index = indexOf(host);
+        if (index < 0 || excluded[index] == exclude) {
+            return;
+        }
+        byFreePes[(int) freePes[index]].remove(bucketKey(index));
+        excluded[index] = exclude;
+        freePes[index] = host.getFreePesNumber();
+        freeRam[index] = host.getRam().getAvailableResource();
+        freeBw[index] = host.getBw().getAvailableResource();
+        if (!exclude) {
+            byFreePes[(int) freePes[index]].add(bucketKey(index));
+        }
+        updateTree(index);
+    }
+
+    /**
+     * @return the first host that fits the VM, starting at position from of the host list and wrapping around
+     */
+    public Optional<Host> findFirstFit(Vm vm, int from) {
+        if (hosts.isEmpty()) {
+            return Optional.empty();
+        }
+        from = Math.floorMod(from, hosts.size());
+        int index = findFirstFit(vm, from, hosts.size());
+        if (index < 0) {
+            index = findFirstFit(vm, 0, from);
+        }
+        return index < 0 ? Optional.empty() : Optional.of(hosts.get(index));
+    }
+
+    /**
+     * @return the host that fits the VM with the fewest free PEs, ties broken by the least free RAM
+     */
+    public Optional<Host> findBestFit(Vm vm) {
+        long pes = vm.getPesNumber();
+        long ram = vm.getRam().getCapacity();
+        long bw = vm.getBw().getCapacity();
+        List<Integer> stale = new ArrayList<>();
+        Host found = null;
+        for (long p = pes; p < byFreePes.length && found == null; p++) {
+            for (long key : byFreePes[(int) p].tailSet(ram << INDEX_BITS)) {
+                int index = (int) (key & INDEX_MASK);
+                if (freeBw[index] < bw) {
+                    continue;
+                }
+                Host host = hosts.get(index);
+                if (host.isSuitableForVm(vm)) {
+                    found = host;
+                    break;
+                }
+                if (isStale(index)) {
+                    stale.add(index); // Refreshed after the iteration, as it moves the host between buckets
+                }
+            }
+        }
+        for (int index : stale) {
+            refresh(index);
+        }
+        return Optional.ofNullable(found);
+    }
+
+    /**
+     * @return the index of the first host in [from, to) that fits the VM, or -1
+     */
+    private int findFirstFit(Vm vm, int from, int to) {
+        long pes = vm.getPesNumber();
+        long ram = vm.getRam().getCapacity();
+        long bw = vm.getBw().getCapacity();
+        while (from < to) {
+            int index = findFirst(1, 0, leafCount, from, pes, ram, bw);
+            if (index < 0 || index >= to) {
+                return -1;
+            }
+            if (hosts.get(index).isSuitableForVm(vm)) {
+                return index;
+            }
+            refresh(index);
+            from = index + 1;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the first leaf at or after from, within the range [nodeFrom, nodeTo) covered by the node, whose free
+     * capacity covers the demand, or -1
+     */
+    private int findFirst(int node, int nodeFrom, int nodeTo, int from, long pes, long ram, long bw) {
+        if (nodeTo <= from || maxFreePes[node] < pes || maxFreeRam[node] < ram || maxFreeBw[node] < bw) {
+            return -1;
+        }
+        if (node >= leafCount) {
+            return node - leafCount;
+        }
+        int middle = (nodeFrom + nodeTo) >>> 1;
+        int index = findFirst(2 * node, nodeFrom, middle, from, pes, ram, bw);
+        return index >= 0 ? index : findFirst(2 * node + 1, middle, nodeTo, from, pes, ram, bw);
+    }
+
+    private boolean isStale(int index) {
+        Host host = hosts.get(index);
+        return freePes[index] != host.getFreePesNumber()
+                || freeRam[index] != host.getRam().getAvailableResource()
+                || freeBw[index] != host.getBw().getAvailableResource();
+    }
+
+    private void refresh(int index) {
+        if (!isStale(index)) {
+            return;
+        }
+        Host host = hosts.get(index);
+        byFreePes[(int) freePes[index]].remove(bucketKey(index));
+        freePes[index] = host.getFreePesNumber();
+        freeRam[index] = host.getRam().getAvailableResource();
+        freeBw[index] = host.getBw().getAvailableResource();
+        if (!excluded[index]) {
+            byFreePes[(int) freePes[index]].add(bucketKey(index));
+        }
+        updateTree(index);
+    }
+
+    private void updateTree(int index) {
+        setLeaf(index);
+        for (int node = (index + leafCount) >>> 1; node > 0; node >>>= 1) {
+            pull(node);
+        }
+    }
+
+    private long bucketKey(int index) {
+        return freeRam[index] << INDEX_BITS | index;
+    }
+
+    private void setLeaf(int index) {
+        // An excluded host fits no VM
+        maxFreePes[leafCount + index] = excluded[index] ? -1 : freePes[index];
+        maxFreeRam[leafCount + index] = excluded[index] ? -1 : freeRam[index];
+        maxFreeBw[leafCount + index] = excluded[index] ? -1 : freeBw[index];
+    }
+
+    private void pull(int node) {
+        maxFreePes[node] = Math.max(maxFreePes[2 * node], maxFreePes[2 * node + 1]);
+        maxFreeRam[node] = Math.max(maxFreeRam[2 * node], maxFreeRam[2 * node + 1]);
+        maxFreeBw[node] = Math.max(maxFreeBw[2 * node], maxFreeBw[2 * node + 1]);
+    }
+}
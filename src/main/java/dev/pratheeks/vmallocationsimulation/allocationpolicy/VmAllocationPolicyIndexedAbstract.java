@@ -0,0 +1,71 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy;
+
+import org.cloudsimplus.allocationpolicies.VmAllocationPolicy;
+import org.cloudsimplus.allocationpolicies.VmAllocationPolicyAbstract;
+import org.cloudsimplus.hosts.Host;
+import org.cloudsimplus.hosts.HostSuitability;
+import org.cloudsimplus.vms.Vm;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Base of the policies that find hosts through a {@link HostCapacityIndex}.
+ * The index is built on first use and updated whenever a VM is placed on or removed from a host, which covers VM
+ * creation, destruction and both ends of a migration.
+ * <p>
+ * Hosts can be excluded from placement, so that VMs being drained off a group of hosts are not moved onto another
+ * host of the group.
+ */
+public abstract class VmAllocationPolicyIndexedAbstract extends VmAllocationPolicyAbstract
+        implements VmAllocationPolicy {
+    private HostCapacityIndex hostCapacityIndex = null;
+    private final Set<Host> excludedHosts = new LinkedHashSet<>();
+
+    protected HostCapacityIndex getHostCapacityIndex() {
+        if (hostCapacityIndex == null || hostCapacityIndex.size() != getHostList().size()) {
+            hostCapacityIndex = new HostCapacityIndex(getHostList());
+            for (Host host : excludedHosts) {
+                hostCapacityIndex.setExcluded(host, true);
+            }
+        }
+        return hostCapacityIndex;
+    }
+
+    /**
+     * Excludes a host from placement, no VM is placed on it until it is included again
+     */
+    public void setHostExcluded(Host host, boolean exclude) {
+        if (exclude ? excludedHosts.add(host) : excludedHosts.remove(host)) {
+            if (hostCapacityIndex != null) {
+                hostCapacityIndex.setExcluded(host, exclude);
+            }
+        }
+    }
+
+    /**
+     * @return the hosts excluded from placement
+     */
+    public Set<Host> getExcludedHosts() {
+        return Collections.unmodifiableSet(excludedHosts);
+    }
+
+    @Override
+    public HostSuitability allocateHostForVm(Vm vm, Host host) {
+        final HostSuitability suitability = super.allocateHostForVm(vm, host);
+        if (hostCapacityIndex != null) {
+            hostCapacityIndex.update(host);
+        }
+        return suitability;
+    }
+
+    @Override
+    public void deallocateHostForVm(Vm vm) {
+        final Host host = vm.getHost();
+        super.deallocateHostForVm(vm);
+        if (hostCapacityIndex != null && host != Host.NULL) {
+            hostCapacityIndex.update(host);
+        }
+    }
+}
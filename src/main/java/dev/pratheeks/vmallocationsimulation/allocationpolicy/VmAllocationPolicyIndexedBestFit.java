@@ -0,0 +1,17 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy;
+
+import org.cloudsimplus.hosts.Host;
+import org.cloudsimplus.vms.Vm;
+
+import java.util.Optional;
+
+/**
+ * BestFit that places a VM on the suitable host with the fewest free PEs, ties broken by the least free RAM,
+ * looked up in a {@link HostCapacityIndex} instead of sorting the host list for every VM
+ */
+public class VmAllocationPolicyIndexedBestFit extends VmAllocationPolicyIndexedAbstract {
+    @Override
+    protected Optional<Host> defaultFindHostForVm(Vm vm) {
+        return getHostCapacityIndex().findBestFit(vm);
+    }
+}
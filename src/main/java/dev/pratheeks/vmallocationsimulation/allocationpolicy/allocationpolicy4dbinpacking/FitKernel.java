@@ -0,0 +1,51 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
+
+/**
+ * Tests whether a VM fits on each host of a run of up to 64 hosts, over struct-of-arrays free capacities, and
+ * returns the answers as a bitmask, so that a scan over thousands of hosts only visits the hosts that fit.
+ * <p>
+ * {@link #best()} is the SIMD {@code VectorFitKernel}, which compares as many hosts per instruction as the vector
+ * registers hold 64-bit lanes, when it was built with the simd Maven profile and the JVM runs with
+ * {@code --add-modules jdk.incubator.vector}, and the {@link ScalarFitKernel} otherwise or when the
+ * {@code vmsim.simd} system property is false. Both give the same masks.
+ */
+public interface FitKernel {
+    /**
+     * @param from first host, bit 0 of the mask
+     * @param to   end of the hosts, at most 64 after from
+     * @return bit i set for each host from + i of [from, to) whose free capacity covers the demand in every dimension
+     */
+    long fitMask(long[] ramFree, long[] pesFree, long[] bwFree, double[] powerFree, int from, int to,
+                 long ram, long pes, long bw, double power);
+
+    static FitKernel best() {
+        if (Boolean.parseBoolean(System.getProperty("vmsim.simd", "true"))) {
+            FitKernel vector = vector();
+            if (vector != null) {
+                return vector;
+            }
+        }
+        return scalar();
+    }
+
+    static FitKernel scalar() {
+        return new ScalarFitKernel();
+    }
+
+    /**
+     * @return the SIMD kernel, or null if it was not built or the jdk.incubator.vector module is not loaded
+     */
+    static FitKernel vector() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        // Loaded by name, so that this class links without the module
+        try {
+            return (FitKernel) Class.forName(FitKernel.class.getPackageName() + ".VectorFitKernel")
+                    .getDeclaredConstructor()
+                    .newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
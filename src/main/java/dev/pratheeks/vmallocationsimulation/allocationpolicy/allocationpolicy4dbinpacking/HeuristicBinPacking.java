@@ -0,0 +1,320 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
+
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Greedy allocation of the unallocated VMs over the ram/pes/bw/power dimensions, for when the exact
+ * {@link OptimalBinPacking} search is too slow.
+ * <p>
+ * The VMs are placed one by one in decreasing order of dominant share. Each VM goes to one of the hosts that already
+ * received a VM of this allocation if any of them fits it, otherwise it opens a new host, so that the number of
+ * additional hosts used stays low. The {@link Strategy} picks among the fitting hosts; best fit and L2 norm would
+ * open the tightest host, which then fits little else, so they open the host with the most remaining capacity.
+ * Sorting takes O(v log v) for v VMs. First fit finds the first fitting host in a {@link PackedFitTree} of the
+ * touched hosts in the order they were opened, then in one of the untouched hosts, in O(log h) per placement for h
+ * hosts when a single dimension decides the fit. Best fit walks the touched hosts in increasing order of remaining
+ * volume, which orders them as its score does, and opens the untouched hosts in decreasing order of volume, both
+ * kept in ordered sets, up to the first host that fits. The dot product and L2 norm scores depend on the direction
+ * of the demand of each VM, so no single order of the hosts ranks them for every VM: these strategies scan the
+ * touched hosts, and the untouched ones of the {@link PackedCapacityModel#fitMask(int, long[]) fit mask} of the VM,
+ * O(v * h) in total.
+ */
+public class HeuristicBinPacking {
+    private static final int DIMENSIONS = PackedCapacityModel.DIMENSIONS;
+
+    public enum Strategy {
+        /**
+         * First host that fits, in host order
+         */
+        FIRST_FIT_DECREASING,
+        /**
+         * Host with the least normalized remaining capacity left after the placement
+         */
+        BEST_FIT_DECREASING,
+        /**
+         * Host whose normalized remaining capacity is best aligned with the demand of the VM (largest dot product)
+         */
+        DOT_PRODUCT,
+        /**
+         * Host whose normalized remaining capacity is closest to the demand of the VM (smallest L2 norm of the
+         * difference)
+         */
+        L2_NORM
+    }
+
+    private final PackedCapacityModel originalModel;
+    private final Strategy strategy;
+    private Map<Long, Long> newAllocation;
+    private int additionalHostsUsed;
+    private int unplacedVms;
+
+    private PackedCapacityModel model;
+    private long[] fitMask; // Hosts the VM being placed fits on
+    // Touched hosts in the order they were opened, position of each touched host in that order, -1 if untouched
+    private int[] touchedHosts;
+    private int[] touchedSlot;
+    // First fit indices of the touched hosts by opening order and of the untouched hosts by host index
+    private PackedFitTree touchedFitTree;
+    private PackedFitTree untouchedFitTree;
+    // Best fit orders of the touched hosts by increasing and of the untouched hosts by decreasing remaining volume
+    private double[] volume;
+    private TreeSet<Integer> touchedByVolume;
+    private TreeSet<Integer> untouchedByVolume;
+    private final double[] scale = new double[DIMENSIONS]; // Largest remaining capacity of a host per dimension
+
+    public HeuristicBinPacking(List<SimpleHost> hosts, List<SimpleVm> allVms, Strategy strategy) {
+        this(PackedCapacityModel.of(hosts, allVms), strategy);
+    }
+
+    /**
+     * Allocates the unassigned VMs of the model, which is left unchanged
+     */
+    public HeuristicBinPacking(PackedCapacityModel model, Strategy strategy) {
+        this.originalModel = model;
+        this.strategy = strategy;
+        this.newAllocation = new HashMap<>();
+    }
+
+    /**
+     * @return VM ID -> host ID of the unallocated VMs, VMs that fit on no host are left out
+     */
+    public Map<Long, Long> findAllocation() {
+        model = new PackedCapacityModel(originalModel);
+        int hostCount = model.getHostCount();
+        Arrays.fill(scale, 0);
+        for (int host = 0; host < hostCount; host++) {
+            for (int d = 0; d < DIMENSIONS; d++) {
+                scale[d] = Math.max(scale[d], model.remainingCapacity(host, d));
+            }
+        }
+
+        int[] vms = Arrays.stream(model.unassignedVms()).boxed()
+                .sorted(Comparator.comparingDouble(this::dominantShare).reversed())
+                .mapToInt(Integer::intValue)
+                .toArray();
+
+        touchedHosts = new int[hostCount];
+        touchedSlot = new int[hostCount];
+        Arrays.fill(touchedSlot, -1);
+        additionalHostsUsed = 0;
+        unplacedVms = 0;
+        newAllocation = new HashMap<>();
+        indexHosts(hostCount);
+        for (int vm : vms) {
+            int host = selectTouchedHost(vm);
+            if (host < 0) {
+                host = selectUntouchedHost(vm);
+                if (host < 0) {
+                    unplacedVms++;
+                    continue;
+                }
+                touch(host);
+            }
+            model.allocateVm(vm, host);
+            touchedHostChanged(host);
+            newAllocation.put(model.getVmId(vm), model.getHostId(host));
+        }
+        return newAllocation;
+    }
+
+    /**
+     * Builds the host orders the strategy searches, every host being untouched
+     */
+    private void indexHosts(int hostCount) {
+        switch (strategy) {
+            case FIRST_FIT_DECREASING -> {
+                touchedFitTree = PackedFitTree.empty(model, hostCount);
+                untouchedFitTree = PackedFitTree.ofAllHosts(model);
+            }
+            case BEST_FIT_DECREASING -> {
+                volume = new double[hostCount];
+                for (int host = 0; host < hostCount; host++) {
+                    volume[host] = remainingVolume(host);
+                }
+                touchedByVolume = new TreeSet<>(Comparator.<Integer>comparingDouble(host -> volume[host])
+                        .thenComparingInt(host -> touchedSlot[host]));
+                untouchedByVolume = new TreeSet<>(Comparator.<Integer>comparingDouble(host -> -volume[host])
+                        .thenComparingInt(host -> host));
+                for (int host = 0; host < hostCount; host++) {
+                    untouchedByVolume.add(host);
+                }
+            }
+            case DOT_PRODUCT, L2_NORM -> fitMask = new long[PackedCapacityModel.maskWords(hostCount)];
+        }
+    }
+
+    private void touch(int host) {
+        switch (strategy) {
+            case FIRST_FIT_DECREASING -> {
+                untouchedFitTree.clear(host);
+                touchedFitTree.set(additionalHostsUsed, host);
+            }
+            case BEST_FIT_DECREASING -> untouchedByVolume.remove(host);
+            default -> {
+            }
+        }
+        touchedSlot[host] = additionalHostsUsed;
+        touchedHosts[additionalHostsUsed++] = host;
+        if (strategy == Strategy.BEST_FIT_DECREASING) {
+            touchedByVolume.add(host);
+        }
+    }
+
+    /**
+     * Moves a touched host in the orders of the strategy after a VM was placed on it
+     */
+    private void touchedHostChanged(int host) {
+        switch (strategy) {
+            case FIRST_FIT_DECREASING -> touchedFitTree.refresh(touchedSlot[host]);
+            case BEST_FIT_DECREASING -> {
+                touchedByVolume.remove(host);
+                volume[host] = remainingVolume(host);
+                touchedByVolume.add(host);
+            }
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * @return the touched host the strategy prefers for the VM, or -1 if none fits it
+     */
+    private int selectTouchedHost(int vm) {
+        if (strategy == Strategy.FIRST_FIT_DECREASING) {
+            int slot = touchedFitTree.findFirst(vm);
+            return slot < 0 ? -1 : touchedFitTree.hostOf(slot);
+        }
+        if (strategy == Strategy.BEST_FIT_DECREASING) {
+            return firstFitting(touchedByVolume, vm);
+        }
+        int bestHost = -1;
+        double bestScore = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < additionalHostsUsed; i++) {
+            int host = touchedHosts[i];
+            if (!model.canFitVm(host, vm)) {
+                continue;
+            }
+            double score = score(host, vm);
+            if (score < bestScore) {
+                bestScore = score;
+                bestHost = host;
+            }
+        }
+        return bestHost;
+    }
+
+    /**
+     * @return the untouched host the strategy prefers for the VM, or -1 if none fits it
+     */
+    private int selectUntouchedHost(int vm) {
+        if (strategy == Strategy.FIRST_FIT_DECREASING) {
+            int slot = untouchedFitTree.findFirst(vm);
+            return slot < 0 ? -1 : untouchedFitTree.hostOf(slot);
+        }
+        if (strategy == Strategy.BEST_FIT_DECREASING) {
+            return firstFitting(untouchedByVolume, vm);
+        }
+        model.fitMask(vm, fitMask);
+        int bestHost = -1;
+        double bestScore = Double.POSITIVE_INFINITY;
+        for (int word = 0; word < fitMask.length; word++) {
+            for (long bits = fitMask[word]; bits != 0; bits &= bits - 1) {
+                int host = word * PackedCapacityModel.HOSTS_PER_MASK_WORD + Long.numberOfTrailingZeros(bits);
+                if (touchedSlot[host] >= 0) {
+                    continue;
+                }
+                double score = opensRoomiestHost() ? -remainingVolume(host) : score(host, vm);
+                if (score < bestScore) {
+                    bestScore = score;
+                    bestHost = host;
+                }
+            }
+        }
+        return bestHost;
+    }
+
+    /**
+     * @return the first host of the order that fits the VM, or -1
+     */
+    private int firstFitting(TreeSet<Integer> hosts, int vm) {
+        for (int host : hosts) {
+            if (model.canFitVm(host, vm)) {
+                return host;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return how well the host suits the VM according to the strategy, lower is better
+     */
+    private double score(int host, int vm) {
+        double score = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            if (scale[d] == 0) {
+                continue;
+            }
+            double remaining = model.remainingCapacity(host, d) / scale[d];
+            double demand = model.demand(vm, d) / scale[d];
+            score += switch (strategy) {
+                case BEST_FIT_DECREASING -> remaining - demand;
+                case DOT_PRODUCT -> -remaining * demand;
+                case L2_NORM -> (remaining - demand) * (remaining - demand);
+                case FIRST_FIT_DECREASING -> 0;
+            };
+        }
+        return score;
+    }
+
+    private boolean opensRoomiestHost() {
+        return strategy == Strategy.BEST_FIT_DECREASING || strategy == Strategy.L2_NORM;
+    }
+
+    /**
+     * Sum of the remaining capacities normalized by the largest host capacity of each dimension
+     */
+    private double remainingVolume(int host) {
+        double volume = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            if (scale[d] > 0) {
+                volume += model.remainingCapacity(host, d) / scale[d];
+            }
+        }
+        return volume;
+    }
+
+    private double dominantShare(int vm) {
+        double share = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            if (scale[d] > 0) {
+                share = Math.max(share, model.demand(vm, d) / scale[d]);
+            }
+        }
+        return share;
+    }
+
+    public int getAdditionalHostsUsed() {
+        return additionalHostsUsed;
+    }
+
+    /**
+     * @return number of VMs of the last allocation that fit on no host
+     */
+    public int getUnplacedVms() {
+        return unplacedVms;
+    }
+
+    public void printAllocation() {
+        printAllocation(System.out);
+    }
+
+    public void printAllocation(PrintStream out) {
+        out.println("Heuristic (" + strategy + ") New VM Allocation Results:");
+        out.println("Additional Hosts Used: " + additionalHostsUsed
+                + (unplacedVms == 0 ? "" : " (" + unplacedVms + " VMs fit on no host)"));
+        for (Map.Entry<Long, Long> entry : newAllocation.entrySet()) {
+            out.println("VM " + entry.getKey() + " allocated to Host " + entry.getValue());
+        }
+    }
+}
@@ -0,0 +1,373 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
+
+import dev.pratheeks.vmallocationsimulation.util.LongIntHashMap;
+
+import java.io.PrintStream;
+import java.util.*;
+
+/**
+ * Anytime allocation of the unallocated VMs that uses few additional hosts, for when the allocation must be ready
+ * within a hard time budget, which the exact {@link OptimalBinPacking} search cannot promise.
+ * <p>
+ * It starts from the greedy {@link HeuristicBinPacking} allocation and improves it by simulated annealing over two
+ * neighbourhoods: moving a VM to another host and swapping two VMs of different hosts. The energy is the number of
+ * additional hosts minus half the sum of the squared loads of these hosts, so that among allocations with as many
+ * hosts the ones with a nearly empty host are preferred, emptying it then being a step down. A VM is tabu on the host
+ * it just left for a few iterations, so that the search does not undo its last moves. Every move keeps the allocation
+ * feasible and the best allocation is kept, so the search can stop at any time; it stops early once it reaches the
+ * lower bound of the exact search at its root (per dimension ceil(sum/capacity) and normalized volume), and reports
+ * the gap to it otherwise.
+ */
+public class LocalSearchBinPacking {
+    private static final int DIMENSIONS = PackedCapacityModel.DIMENSIONS;
+    private static final HeuristicBinPacking.Strategy SEED_STRATEGY = HeuristicBinPacking.Strategy.DOT_PRODUCT;
+    private static final double SWAP_PROBABILITY = 0.5;
+    /**
+     * Probability of moving a VM to any host rather than to a host of the allocation, so that the search can change
+     * the hosts the greedy allocation opened
+     */
+    private static final double ANY_HOST_PROBABILITY = 0.02;
+    private static final double LOAD_WEIGHT = 0.5;
+    private static final double INITIAL_TEMPERATURE = 0.3;
+    private static final double FINAL_TEMPERATURE = 0.001;
+    private static final int TABU_TENURE = 10;
+    /**
+     * Number of iterations between two checks of the time budget and updates of the temperature
+     */
+    private static final int TIME_CHECK_INTERVAL = 256;
+
+    private final PackedCapacityModel originalModel;
+    /**
+     * Search budget, a non-positive value disables the limit
+     */
+    private final long timeLimitNanos;
+    private final long iterationLimit;
+    private final Random random;
+
+    private Map<Long, Long> newAllocation = new HashMap<>();
+    private int additionalHostsUsed;
+    private int lowerBound;
+    private int unplacedVms;
+    private long iterations;
+
+    private PackedCapacityModel model;
+    private int[] vms; // VM indices in the model of the placed VMs
+    private double[] vmLoad; // Normalized volume per entry of vms
+    private int[] newVmsOnHost;
+    private double[] hostLoad; // Normalized volume of the VMs placed on each host
+    private int[] touchedHosts; // Hosts with newVmsOnHost > 0, in no particular order
+    private int[] touchedPosition; // Position of each host in touchedHosts, -1 if untouched
+    private int touchedCount;
+    private int[] tabuHost; // Per entry of vms
+    private long[] tabuUntil;
+    private final double[] scale = new double[DIMENSIONS]; // Largest remaining capacity of a host per dimension
+    private double maxHostVolume;
+
+    /**
+     * @param timeLimitMillis maximum wall clock time of the search, including the greedy allocation it starts from,
+     *                        non-positive for no limit
+     * @param iterationLimit  maximum number of iterations, non-positive for no limit
+     */
+    public LocalSearchBinPacking(List<SimpleHost> hosts, List<SimpleVm> allVms, long timeLimitMillis,
+                                 long iterationLimit, Random random) {
+        this(PackedCapacityModel.of(hosts, allVms), timeLimitMillis, iterationLimit, random);
+    }
+
+    /**
+     * Allocates the unassigned VMs of the model, which is left unchanged
+     *
+     * @param timeLimitMillis maximum wall clock time of the search, including the greedy allocation it starts from,
+     *                        non-positive for no limit
+     * @param iterationLimit  maximum number of iterations, non-positive for no limit
+     */
+    public LocalSearchBinPacking(PackedCapacityModel model, long timeLimitMillis, long iterationLimit, Random random) {
+        if (timeLimitMillis <= 0 && iterationLimit <= 0) {
+            throw new IllegalArgumentException("The local search needs a time or an iteration limit");
+        }
+        this.originalModel = model;
+        this.timeLimitNanos = timeLimitMillis * 1_000_000L;
+        this.iterationLimit = iterationLimit;
+        this.random = random;
+    }
+
+    /**
+     * @return VM ID -> host ID of the unallocated VMs, VMs that fit on no host are left out
+     */
+    public Map<Long, Long> findAllocation() {
+        long start = System.nanoTime();
+        HeuristicBinPacking greedy = new HeuristicBinPacking(originalModel, SEED_STRATEGY);
+        Map<Long, Long> seed = greedy.findAllocation();
+        unplacedVms = greedy.getUnplacedVms();
+        iterations = 0;
+
+        model = new PackedCapacityModel(originalModel);
+        initializeScale();
+        int hostCount = model.getHostCount();
+        LongIntHashMap hostIndexById = new LongIntHashMap(hostCount);
+        for (int host = 0; host < hostCount; host++) {
+            hostIndexById.put(model.getHostId(host), host);
+        }
+        int[] unassigned = model.unassignedVms();
+        vms = new int[seed.size()];
+        vmLoad = new double[seed.size()];
+        newVmsOnHost = new int[hostCount];
+        hostLoad = new double[hostCount];
+        touchedHosts = new int[hostCount];
+        touchedPosition = new int[hostCount];
+        Arrays.fill(touchedPosition, -1);
+        touchedCount = 0;
+        int placed = 0;
+        for (int vm : unassigned) {
+            Long hostId = seed.get(model.getVmId(vm));
+            if (hostId != null) {
+                vms[placed] = vm;
+                vmLoad[placed] = volume(vm);
+                place(placed++, hostIndexById.get(hostId, -1));
+            }
+        }
+        tabuHost = new int[vms.length];
+        Arrays.fill(tabuHost, -1);
+        tabuUntil = new long[vms.length];
+        lowerBound = lowerBound();
+
+        int[] bestAssignment = assignment();
+        int bestHostsUsed = touchedCount;
+        long deadline = start + timeLimitNanos;
+        double temperature = INITIAL_TEMPERATURE;
+        while (bestHostsUsed > lowerBound) {
+            if (iterations % TIME_CHECK_INTERVAL == 0) {
+                double progress = Math.max(
+                        timeLimitNanos > 0 ? 1 - (double) (deadline - System.nanoTime()) / timeLimitNanos : 0,
+                        iterationLimit > 0 ? (double) iterations / iterationLimit : 0);
+                if (progress >= 1) {
+                    break;
+                }
+                temperature = INITIAL_TEMPERATURE * Math.pow(FINAL_TEMPERATURE / INITIAL_TEMPERATURE, progress);
+            }
+            iterations++;
+            int vm = random.nextInt(vms.length);
+            if (vms.length > 1 && random.nextDouble() < SWAP_PROBABILITY) {
+                trySwap(vm, random.nextInt(vms.length), temperature);
+            } else {
+                int host = random.nextDouble() < ANY_HOST_PROBABILITY ? random.nextInt(hostCount)
+                        : touchedHosts[random.nextInt(touchedCount)];
+                tryMove(vm, host, temperature, bestHostsUsed);
+            }
+            if (touchedCount < bestHostsUsed) {
+                bestHostsUsed = touchedCount;
+                bestAssignment = assignment();
+            }
+        }
+
+        additionalHostsUsed = bestHostsUsed;
+        newAllocation = new HashMap<>();
+        for (int i = 0; i < vms.length; i++) {
+            newAllocation.put(model.getVmId(vms[i]), model.getHostId(bestAssignment[i]));
+        }
+        return newAllocation;
+    }
+
+    /**
+     * Moves vms[i] to the host if it fits there, the move is not tabu and the annealing accepts it
+     */
+    private void tryMove(int i, int host, double temperature, int bestHostsUsed) {
+        int vm = vms[i];
+        int from = model.getAssignment(vm);
+        if (host == from || !model.canFitVm(host, vm)) {
+            return;
+        }
+        int hostsDelta = (newVmsOnHost[from] == 1 ? -1 : 0) + (newVmsOnHost[host] == 0 ? 1 : 0);
+        // A tabu move is still made if it leads to a new best allocation
+        if (isTabu(i, host) && touchedCount + hostsDelta >= bestHostsUsed) {
+            return;
+        }
+        double loadDelta = loadChange(hostLoad[from], -vmLoad[i]) + loadChange(hostLoad[host], vmLoad[i]);
+        if (!accept(hostsDelta - LOAD_WEIGHT * loadDelta, temperature)) {
+            return;
+        }
+        unplace(i);
+        place(i, host);
+        makeTabu(i, from);
+    }
+
+    /**
+     * Swaps the hosts of vms[i] and vms[j] if both fit, neither move is tabu and the annealing accepts it
+     */
+    private void trySwap(int i, int j, double temperature) {
+        int vm1 = vms[i];
+        int vm2 = vms[j];
+        int host1 = model.getAssignment(vm1);
+        int host2 = model.getAssignment(vm2);
+        if (host1 == host2 || isTabu(i, host2) || isTabu(j, host1)) {
+            return;
+        }
+        double loadDelta = loadChange(hostLoad[host1], vmLoad[j] - vmLoad[i])
+                + loadChange(hostLoad[host2], vmLoad[i] - vmLoad[j]);
+        if (!accept(-LOAD_WEIGHT * loadDelta, temperature)) {
+            return;
+        }
+        unplace(i);
+        unplace(j);
+        if (model.canFitVm(host1, vm2) && model.canFitVm(host2, vm1)) {
+            place(i, host2);
+            place(j, host1);
+            makeTabu(i, host1);
+            makeTabu(j, host2);
+        } else {
+            place(i, host1);
+            place(j, host2);
+        }
+    }
+
+    private boolean accept(double energyDelta, double temperature) {
+        return energyDelta <= 0 || random.nextDouble() < Math.exp(-energyDelta / temperature);
+    }
+
+    private static double loadChange(double load, double change) {
+        return (load + change) * (load + change) - load * load;
+    }
+
+    private boolean isTabu(int i, int host) {
+        return tabuHost[i] == host && iterations < tabuUntil[i];
+    }
+
+    private void makeTabu(int i, int host) {
+        tabuHost[i] = host;
+        tabuUntil[i] = iterations + TABU_TENURE;
+    }
+
+    private void place(int i, int host) {
+        model.allocateVm(vms[i], host);
+        hostLoad[host] += vmLoad[i];
+        if (newVmsOnHost[host]++ == 0) {
+            touchedPosition[host] = touchedCount;
+            touchedHosts[touchedCount++] = host;
+        }
+    }
+
+    private void unplace(int i) {
+        int host = model.getAssignment(vms[i]);
+        model.deallocateVm(vms[i]);
+        hostLoad[host] -= vmLoad[i];
+        if (--newVmsOnHost[host] == 0) {
+            // The last touched host takes the place of the removed one
+            int last = touchedHosts[--touchedCount];
+            touchedHosts[touchedPosition[host]] = last;
+            touchedPosition[last] = touchedPosition[host];
+            touchedPosition[host] = -1;
+            hostLoad[host] = 0; // Drops the rounding error
+        }
+    }
+
+    private int[] assignment() {
+        int[] assignment = new int[vms.length];
+        for (int i = 0; i < vms.length; i++) {
+            assignment[i] = model.getAssignment(vms[i]);
+        }
+        return assignment;
+    }
+
+    private void initializeScale() {
+        Arrays.fill(scale, 0);
+        for (int host = 0; host < model.getHostCount(); host++) {
+            for (int d = 0; d < DIMENSIONS; d++) {
+                scale[d] = Math.max(scale[d], model.remainingCapacity(host, d));
+            }
+        }
+        maxHostVolume = 0;
+        for (int host = 0; host < model.getHostCount(); host++) {
+            double volume = 0;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                if (scale[d] > 0) {
+                    volume += model.remainingCapacity(host, d) / scale[d];
+                }
+            }
+            maxHostVolume = Math.max(maxHostVolume, volume);
+        }
+    }
+
+    /**
+     * @return the demand of the VM normalized by the largest host capacity of each dimension, relative to the
+     * largest host, so that a host load is at most 1
+     */
+    private double volume(int vm) {
+        double volume = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            if (scale[d] > 0) {
+                volume += model.demand(vm, d) / scale[d];
+            }
+        }
+        return maxHostVolume > 0 ? volume / maxHostVolume : 0;
+    }
+
+    /**
+     * Lower bound of the number of additional hosts the placed VMs need, before they are placed
+     */
+    private int lowerBound() {
+        if (vms.length == 0) {
+            return 0;
+        }
+        int bound = 1;
+        double totalVolume = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            double demand = 0;
+            for (int vm : vms) {
+                demand += model.demand(vm, d);
+                if (scale[d] > 0) {
+                    totalVolume += model.demand(vm, d) / scale[d];
+                }
+            }
+            bound = Math.max(bound, OptimalBinPacking.hostsNeeded(demand, scale[d]));
+        }
+        return Math.max(bound, OptimalBinPacking.hostsNeeded(totalVolume, maxHostVolume));
+    }
+
+    public int getAdditionalHostsUsed() {
+        return additionalHostsUsed;
+    }
+
+    /**
+     * @return lower bound of the number of additional hosts the VMs of the last allocation need
+     */
+    public int getLowerBound() {
+        return lowerBound;
+    }
+
+    /**
+     * @return number of additional hosts the last allocation uses above the lower bound, 0 if it is optimal
+     */
+    public int getGap() {
+        return additionalHostsUsed - lowerBound;
+    }
+
+    /**
+     * @return true if the last allocation reaches the lower bound, so it is optimal
+     */
+    public boolean isOptimal() {
+        return getGap() == 0;
+    }
+
+    /**
+     * @return number of VMs of the last allocation that fit on no host
+     */
+    public int getUnplacedVms() {
+        return unplacedVms;
+    }
+
+    public long getIterations() {
+        return iterations;
+    }
+
+    public void printAllocation() {
+        printAllocation(System.out);
+    }
+
+    public void printAllocation(PrintStream out) {
+        out.println("Local Search New VM Allocation Results:");
+        out.println("Additional Hosts Used: " + additionalHostsUsed + " (lower bound " + lowerBound + ", "
+                + iterations + " iterations)" + (unplacedVms == 0 ? "" : " (" + unplacedVms + " VMs fit on no host)"));
+        for (Map.Entry<Long, Long> entry : newAllocation.entrySet()) {
+            out.println("VM " + entry.getKey() + " allocated to Host " + entry.getValue());
+        }
+    }
+}
@@ -1,107 +1,783 @@
 package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
 
+import dev.pratheeks.vmallocationsimulation.util.LongIntHashMap;
+
+import java.io.PrintStream;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
 
+/**
+ * Branch-and-bound search for the allocation of the unallocated VMs that uses the minimum number of additional hosts.
+ * <p>
+ * The search prunes every subtree whose lower bound (per-dimension ceil(sum/capacity) and normalized
+ * multidimensional volume) cannot beat the incumbent, tries only one of several identical untouched hosts, and
+ * places the VMs with the largest dominant resource first. It can be cut off by a time and/or node budget,
+ * in which case the best allocation found so far is returned.
+ * <p>
+ * Given a {@link ForkJoinPool}, the top levels of the search tree are split into tasks that run in parallel and
+ * prune against a shared incumbent. The incumbent is ranked by (additional hosts, task index), task indices follow
+ * the sequential depth-first order, so a completed search returns the same allocation for any number of threads.
+ * <p>
+ * A known allocation, such as a heuristic packing, can be given as the initial incumbent. The search then only
+ * explores branches that can match or beat it, returns it as is when it already reaches the lower bound, and falls
+ * back to it when the budget runs out before anything better is found.
+ * <p>
+ * Each search keeps a transposition table of the states it explored: the next VM to place and the remaining
+ * capacity of every host with whether the branch uses it, hashed independently of which host is which. A state
+ * reached again by another branch is cut off unless it now costs fewer additional hosts, or as many with a lower
+ * task index, since its subtree cannot hold anything the first visit did not already find or rule out.
+ * <p>
+ * Given a {@link PackingSolutionCache}, a problem that still needs a search after the initial incumbent is first
+ * looked up there, and the allocation of a completed search is stored there.
+ */
 public class OptimalBinPacking {
-    private final List<SimpleHost> originalHosts;
-    private final List<SimpleVm> allVms;
-    private List<SimpleVm> unallocatedVms;
+    private static final int DIMENSIONS = PackedCapacityModel.DIMENSIONS;
+    private static final double EPSILON = 1e-9;
+    /**
+     * Number of explored nodes between two checks of the time budget
+     */
+    private static final int TIME_CHECK_INTERVAL = 1024;
+    /**
+     * The search tree is split until there are this many tasks per worker thread, so that work stealing can balance
+     */
+    private static final int TASKS_PER_THREAD = 8;
+    private static final long NO_INCUMBENT = Long.MAX_VALUE;
+    /**
+     * Slots of the transposition table of a search, allocated once the search explored
+     * {@link #TRANSPOSITION_MIN_NODES} nodes so that the many small searches do not pay for it
+     */
+    private static final int TRANSPOSITION_TABLE_SIZE = 1 << 14;
+    private static final int TRANSPOSITION_MIN_NODES = 256;
+    private static final long TOUCHED = 0x9E3779B97F4A7C15L;
+
+    private int[] unallocatedVms; // VM indices in the packed model
+    private Map<Long, Long> initialIncumbent = null;
     private Map<Long, Long> bestNewAllocation;
     private int minAdditionalHostsUsed;
 
+    /**
+     * Search budget, a non-positive value disables the limit
+     */
+    private final long timeLimitNanos;
+    private final long nodeLimit;
+    private long deadline;
+    private final AtomicLong exploredNodes = new AtomicLong();
+    private volatile boolean budgetExhausted;
+
+    /**
+     * Counters of the last search, see the getters
+     */
+    private final AtomicLong prunedNodes = new AtomicLong();
+    private final AtomicLong incumbentUpdates = new AtomicLong();
+    private final AtomicLong firstSolutionNanos = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong transpositionHits = new AtomicLong();
+    private long searchStart;
+
+    private long transpositionMinNodes = TRANSPOSITION_MIN_NODES;
+    private PackingSolutionCache solutionCache = null;
+    private boolean solutionCacheLookedUp;
+    private boolean solutionCacheHit;
+
+    /**
+     * Workers of the parallel search, null to search sequentially
+     */
+    private final ForkJoinPool pool;
+    /**
+     * Best (additional hosts, task index) found by any search, see {@link #rank(int, int)}
+     */
+    private final AtomicLong incumbent = new AtomicLong(NO_INCUMBENT);
+
+    private final PackedCapacityModel model;
+    private int rootLowerBound;
+    private int[] hostClass; // Hosts with identical remaining capacity share a class
+    private int hostClassCount;
+    private final double[] scale = new double[DIMENSIONS]; // Largest remaining capacity of a host per dimension
+    private double maxHostVolume; // Largest normalized remaining volume of a host
+    private double[][] suffixDemand; // Demand of unallocatedVms[i..] per dimension, volume in the last slot
+
     public OptimalBinPacking(List<SimpleHost> hosts, List<SimpleVm> allVms) {
-        this.originalHosts = new ArrayList<>(hosts);
-        this.allVms = new ArrayList<>(allVms);
-        this.unallocatedVms = new ArrayList<>();
+        this(hosts, allVms, 0, 0);
+    }
+
+    /**
+     * @param timeLimitMillis maximum wall clock time of the search, non-positive for no limit
+     * @param nodeLimit       maximum number of search nodes to explore, non-positive for no limit
+     */
+    public OptimalBinPacking(List<SimpleHost> hosts, List<SimpleVm> allVms, long timeLimitMillis, long nodeLimit) {
+        this(hosts, allVms, timeLimitMillis, nodeLimit, null);
+    }
+
+    /**
+     * @param pool workers of the parallel search, null to search sequentially
+     */
+    public OptimalBinPacking(List<SimpleHost> hosts, List<SimpleVm> allVms, long timeLimitMillis, long nodeLimit,
+                             ForkJoinPool pool) {
+        this(PackedCapacityModel.of(hosts, allVms), timeLimitMillis, nodeLimit, pool);
+    }
+
+    /**
+     * Allocates the unassigned VMs of the model. The model is modified during the search and left as it was given.
+     *
+     * @param pool workers of the parallel search, null to search sequentially
+     */
+    public OptimalBinPacking(PackedCapacityModel model, long timeLimitMillis, long nodeLimit, ForkJoinPool pool) {
+        this.model = model;
         this.bestNewAllocation = new HashMap<>();
         this.minAdditionalHostsUsed = Integer.MAX_VALUE;
+        this.timeLimitNanos = timeLimitMillis * 1_000_000L;
+        this.nodeLimit = nodeLimit;
+        this.pool = pool;
+    }
 
-        identifyUnallocatedVms();
+    /**
+     * Sets an allocation of the unallocated VMs (VM ID -> host ID) the search starts from. It is ignored if it
+     * leaves a VM out or does not fit.
+     */
+    public void setInitialIncumbent(Map<Long, Long> allocation) {
+        this.initialIncumbent = allocation;
     }
 
-    private void identifyUnallocatedVms() {
-        Set<Long> allocatedVmIds = originalHosts.stream()
-                .flatMap(host -> host.getAllocatedVmIds().stream())
-                .collect(Collectors.toSet());
+    /**
+     * Sets the number of nodes a search explores before it starts its transposition table, 0 to start with it and
+     * {@link Long#MAX_VALUE} to search without it
+     */
+    void setTranspositionMinNodes(long transpositionMinNodes) {
+        this.transpositionMinNodes = transpositionMinNodes;
+    }
 
-        this.unallocatedVms = allVms.stream()
-                .filter(vm -> !allocatedVmIds.contains(vm.getId()))
-                .collect(Collectors.toList());
+    /**
+     * Sets the cache of the allocations of earlier searches, null to always search
+     */
+    public void setSolutionCache(PackingSolutionCache solutionCache) {
+        this.solutionCache = solutionCache;
     }
 
     public Map<Long, Long> findOptimalAllocation() {
-        List<SimpleHost> hosts = cloneHosts(originalHosts);
-        Map<Long, Long> currentNewAllocation = new HashMap<>();
-        findOptimalAllocationRecursive(hosts, 0, currentNewAllocation);
+        searchStart = System.nanoTime();
+        unallocatedVms = model.unassignedVms();
+        initializeBounds();
+
+        exploredNodes.set(0);
+        prunedNodes.set(0);
+        incumbentUpdates.set(0);
+        firstSolutionNanos.set(Long.MAX_VALUE);
+        transpositionHits.set(0);
+        solutionCacheLookedUp = false;
+        solutionCacheHit = false;
+        budgetExhausted = false;
+        incumbent.set(NO_INCUMBENT);
+        deadline = System.nanoTime() + timeLimitNanos;
+
+        int[] initialAssignment = initialIncumbentAssignment();
+        if (initialAssignment != null) {
+            firstSolutionNanos.set(System.nanoTime() - searchStart);
+            int initialHostsUsed = (int) Arrays.stream(initialAssignment).distinct().count();
+            if (initialHostsUsed <= rootLowerBound) {
+                // Already optimal, there is nothing to search for
+                minAdditionalHostsUsed = initialHostsUsed;
+                bestNewAllocation = toAllocation(initialAssignment);
+                return bestNewAllocation;
+            }
+            // Ranked after every search task, so that the search replaces it with any allocation at least as good
+            incumbent.set(rank(initialHostsUsed, Integer.MAX_VALUE));
+        }
+
+        PackingSolutionCache.Signature signature = null;
+        if (solutionCache != null) {
+            signature = solutionCache.signature(model, unallocatedVms);
+            Map<Long, Long> cached = solutionCache.get(signature);
+            solutionCacheLookedUp = true;
+            if (cached != null) {
+                solutionCacheHit = true;
+                firstSolutionNanos.accumulateAndGet(System.nanoTime() - searchStart, Math::min);
+                // Empty is the allocation of no VMs, or no allocation at all
+                minAdditionalHostsUsed = cached.isEmpty() && unallocatedVms.length > 0
+                        ? Integer.MAX_VALUE : new HashSet<>(cached.values()).size();
+                bestNewAllocation = cached;
+                return bestNewAllocation;
+            }
+        }
+
+        List<Search> searches = pool == null || pool.getParallelism() < 2 || unallocatedVms.length < 2
+                ? List.of(searchSequentially())
+                : searchInParallel();
+
+        // The search that found the incumbent holds its allocation
+        Search best = searches.stream().min(Comparator.comparingLong(search -> search.bestRank)).orElseThrow();
+        bestNewAllocation = new HashMap<>();
+        if (best.bestAssignment != null) {
+            minAdditionalHostsUsed = (int) (best.bestRank >>> 32);
+            bestNewAllocation = toAllocation(best.bestAssignment);
+        } else if (initialAssignment != null) {
+            minAdditionalHostsUsed = (int) (incumbent.get() >>> 32);
+            bestNewAllocation = toAllocation(initialAssignment);
+        }
+        if (signature != null && isOptimal()) {
+            solutionCache.put(signature, bestNewAllocation);
+        }
         return bestNewAllocation;
     }
 
-    private void findOptimalAllocationRecursive(List<SimpleHost> hosts, int vmIndex, Map<Long, Long> currentNewAllocation) {
-        if (vmIndex == unallocatedVms.size()) {
-            // Here the best allocation is defined as the one that uses the minimum number of additional hosts
-            int additionalHostsUsed = (int) hosts.stream()
-                    .filter(host -> host.getAllocatedVmIds().stream().anyMatch(vmId -> unallocatedVms.stream().anyMatch(vm -> vm.getId() == vmId)))
-                    .count();
-            if (additionalHostsUsed < minAdditionalHostsUsed) {
-                minAdditionalHostsUsed = additionalHostsUsed;
-                bestNewAllocation = new HashMap<>(currentNewAllocation);
+    /**
+     * @return host index per entry of unallocatedVms of the initial incumbent, or null if there is no usable one
+     */
+    private int[] initialIncumbentAssignment() {
+        if (initialIncumbent == null || initialIncumbent.size() != unallocatedVms.length) {
+            return null;
+        }
+        LongIntHashMap hostIndexById = new LongIntHashMap(model.getHostCount());
+        for (int host = 0; host < model.getHostCount(); host++) {
+            hostIndexById.put(model.getHostId(host), host);
+        }
+        int[] assignment = new int[unallocatedVms.length];
+        int placed = 0;
+        while (placed < unallocatedVms.length) {
+            int vm = unallocatedVms[placed];
+            Long hostId = initialIncumbent.get(model.getVmId(vm));
+            int host = hostId == null ? -1 : hostIndexById.get(hostId, -1);
+            if (host < 0 || !model.canFitVm(host, vm)) {
+                break;
+            }
+            model.allocateVm(vm, host);
+            assignment[placed++] = host;
+        }
+        for (int i = 0; i < placed; i++) {
+            model.deallocateVm(unallocatedVms[i]);
+        }
+        return placed == unallocatedVms.length ? assignment : null;
+    }
+
+    private Map<Long, Long> toAllocation(int[] assignment) {
+        Map<Long, Long> allocation = new HashMap<>();
+        for (int i = 0; i < unallocatedVms.length; i++) {
+            allocation.put(model.getVmId(unallocatedVms[i]), model.getHostId(assignment[i]));
+        }
+        return allocation;
+    }
+
+    private Search searchSequentially() {
+        Search search = new Search(model);
+        search.taskIndex = 0;
+        search.findOptimalAllocationRecursive(0);
+        search.flushExploredNodes();
+        return search;
+    }
+
+    private List<Search> searchInParallel() {
+        // Enumerate the top of the tree in depth-first order, deepening until there are enough tasks
+        List<int[]> tasks = new ArrayList<>();
+        int splitDepth = 0;
+        while (tasks.size() < pool.getParallelism() * TASKS_PER_THREAD && splitDepth < unallocatedVms.length - 1) {
+            splitDepth++;
+            tasks.clear();
+            Search enumeration = new Search(model);
+            enumeration.collectTasks(0, splitDepth, tasks);
+        }
+
+        List<Search> searches = Collections.synchronizedList(new ArrayList<>());
+        ThreadLocal<Search> workerSearch = ThreadLocal.withInitial(() -> {
+            Search search = new Search(new PackedCapacityModel(model));
+            searches.add(search);
+            return search;
+        });
+        int depth = splitDepth;
+        List<RecursiveAction> actions = new ArrayList<>(tasks.size());
+        for (int i = 0; i < tasks.size(); i++) {
+            int taskIndex = i;
+            int[] prefix = tasks.get(i);
+            actions.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    workerSearch.get().searchSubtree(taskIndex, prefix, depth);
+                }
+            });
+        }
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(actions);
+            }
+        });
+        searches.forEach(Search::flushExploredNodes);
+        if (searches.isEmpty()) {
+            searches.add(new Search(model)); // No task could be created, there is no feasible allocation
+        }
+        return searches;
+    }
+
+    /**
+     * @return true if the returned allocation is proven optimal, false if the search budget ran out first
+     */
+    public boolean isOptimal() {
+        return !budgetExhausted;
+    }
+
+    public int getMinAdditionalHostsUsed() {
+        return minAdditionalHostsUsed;
+    }
+
+    public long getExploredNodes() {
+        return exploredNodes.get();
+    }
+
+    /**
+     * @return number of subtrees of the last search cut off because their lower bound could not beat the incumbent
+     */
+    public long getPrunedNodes() {
+        return prunedNodes.get();
+    }
+
+    /**
+     * @return number of times the last search replaced the incumbent with a better allocation
+     */
+    public long getIncumbentUpdates() {
+        return incumbentUpdates.get();
+    }
+
+    /**
+     * @return wall clock time from the start of the last search until it knew a complete allocation, the initial
+     * incumbent included, or -1 if it found none
+     */
+    public long getTimeToFirstSolutionNanos() {
+        long nanos = firstSolutionNanos.get();
+        return nanos == Long.MAX_VALUE ? -1 : nanos;
+    }
+
+    /**
+     * @return number of subtrees of the last search cut off because another branch already explored the same state
+     */
+    public long getTranspositionHits() {
+        return transpositionHits.get();
+    }
+
+    /**
+     * @return true if the last search looked its problem up in the solution cache, that is it had a cache and the
+     * initial incumbent was not already optimal
+     */
+    public boolean isSolutionCacheLookedUp() {
+        return solutionCacheLookedUp;
+    }
+
+    /**
+     * @return true if the allocation of the last search came from the solution cache
+     */
+    public boolean isSolutionCacheHit() {
+        return solutionCacheHit;
+    }
+
+    /**
+     * Orders allocations by number of additional hosts used, then by the index of the task that found them
+     */
+    private static long rank(int additionalHostsUsed, int taskIndex) {
+        return ((long) additionalHostsUsed << 32) | taskIndex;
+    }
+
+    /**
+     * Mutable state of one depth-first search over its own copy of the packed model
+     */
+    private class Search {
+        private final PackedCapacityModel model;
+        private final int[] newVmsOnHost; // Number of unallocated VMs placed on each host in the current branch
+        private int additionalHostsUsed; // Number of hosts with newVmsOnHost > 0
+        private final double[] touchedRemaining = new double[DIMENSIONS + 1]; // Remaining capacity of the touched hosts
+        private final long[] classTriedAtNode;
+        private final long[][] fitMasks; // Hosts the VM fits on, per VM index
+        private long nodes;
+        private long unflushedNodes;
+        private long unflushedPrunes;
+        private long unflushedTranspositionHits;
+
+        /**
+         * Two independent hashes of the state, each the sum over the hosts of a hash of their remaining capacity and
+         * whether they are touched, so that it does not depend on which host is which
+         */
+        private long stateHash1;
+        private long stateHash2;
+        /**
+         * Transposition table: state hashes with the next VM index and the best rank the state was explored at,
+         * null until the search is large enough
+         */
+        private long[] transpositionKey1;
+        private long[] transpositionKey2;
+        private long[] transpositionRank;
+
+        private int taskIndex;
+        private long bestRank = NO_INCUMBENT;
+        private int[] bestAssignment; // Host index per entry of unallocatedVms
+
+        /**
+         * Tasks collected while enumerating the top of the tree, null when searching
+         */
+        private List<int[]> tasks;
+        private int splitDepth;
+
+        Search(PackedCapacityModel model) {
+            this.model = model;
+            this.newVmsOnHost = new int[model.getHostCount()];
+            this.classTriedAtNode = new long[hostClassCount];
+            this.fitMasks = new long[unallocatedVms.length][PackedCapacityModel.maskWords(model.getHostCount())];
+            for (int host = 0; host < model.getHostCount(); host++) {
+                addHostHash(host, 1);
+            }
+        }
+
+        void collectTasks(int vmIndex, int splitDepth, List<int[]> tasks) {
+            this.tasks = tasks;
+            this.splitDepth = splitDepth;
+            findOptimalAllocationRecursive(vmIndex);
+            this.tasks = null;
+        }
+
+        /**
+         * Replays the placement of the first VMs given by the task, then searches below it
+         */
+        void searchSubtree(int taskIndex, int[] prefix, int depth) {
+            this.taskIndex = taskIndex;
+            for (int i = 0; i < depth; i++) {
+                place(unallocatedVms[i], prefix[i]);
+            }
+            findOptimalAllocationRecursive(depth);
+            for (int i = depth - 1; i >= 0; i--) {
+                unplace(unallocatedVms[i], prefix[i]);
+            }
+        }
+
+        private void findOptimalAllocationRecursive(int vmIndex) {
+            if (vmIndex == unallocatedVms.length) {
+                // Here the best allocation is defined as the one that uses the minimum number of additional hosts
+                long rank = rank(additionalHostsUsed, taskIndex);
+                if (rank < incumbent.get()) {
+                    bestRank = rank;
+                    if (bestAssignment == null) {
+                        bestAssignment = new int[unallocatedVms.length];
+                    }
+                    for (int i = 0; i < unallocatedVms.length; i++) {
+                        bestAssignment[i] = model.getAssignment(unallocatedVms[i]);
+                    }
+                    incumbent.accumulateAndGet(rank, Math::min);
+                    incumbentUpdates.incrementAndGet();
+                    firstSolutionNanos.accumulateAndGet(System.nanoTime() - searchStart, Math::min);
+                }
+                return;
+            }
+            if (tasks != null && vmIndex == splitDepth) {
+                int[] prefix = new int[splitDepth];
+                for (int i = 0; i < splitDepth; i++) {
+                    prefix[i] = model.getAssignment(unallocatedVms[i]);
+                }
+                tasks.add(prefix);
+                return;
+            }
+
+            if (isBudgetExhausted()) {
+                return;
+            }
+            if (rank(additionalHostsUsed + lowerBound(vmIndex), taskIndex) >= incumbent.get()) {
+                unflushedPrunes++;
+                return;
+            }
+            if (tasks == null && isTransposition(vmIndex)) {
+                unflushedTranspositionHits++;
+                return;
+            }
+            long node = ++nodes;
+            unflushedNodes++;
+
+            int currentVm = unallocatedVms[vmIndex];
+            // The branches below undo their placements, so the mask holds for every host tried at this node
+            long[] fitMask = fitMasks[vmIndex];
+            model.fitMask(currentVm, fitMask);
+
+            // Hosts already used by this branch cost nothing extra, so they are tried first
+            for (int word = 0; word < fitMask.length; word++) {
+                for (long bits = fitMask[word]; bits != 0 && canImprove(); bits &= bits - 1) {
+                    int host = word * PackedCapacityModel.HOSTS_PER_MASK_WORD + Long.numberOfTrailingZeros(bits);
+                    if (newVmsOnHost[host] > 0) {
+                        tryAllocation(host, currentVm, vmIndex);
+                    }
+                }
+            }
+            // Opening another host can only beat the incumbent if one more host does
+            if (rank(additionalHostsUsed + 1, taskIndex) >= incumbent.get()) {
+                unflushedPrunes++;
+                return;
+            }
+            // Untouched hosts with identical remaining capacity lead to symmetric subtrees, only the first one is tried
+            for (int word = 0; word < fitMask.length; word++) {
+                for (long bits = fitMask[word]; bits != 0 && canImprove(); bits &= bits - 1) {
+                    int host = word * PackedCapacityModel.HOSTS_PER_MASK_WORD + Long.numberOfTrailingZeros(bits);
+                    if (newVmsOnHost[host] == 0 && classTriedAtNode[hostClass[host]] != node) {
+                        classTriedAtNode[hostClass[host]] = node;
+                        tryAllocation(host, currentVm, vmIndex);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return false once an allocation reaching the root lower bound has been found by this or an earlier task
+         */
+        private boolean canImprove() {
+            return rank(rootLowerBound, taskIndex) < incumbent.get();
+        }
+
+        private void tryAllocation(int host, int vm, int vmIndex) {
+            // Try allocating the VM to this host
+            place(vm, host);
+
+            // Recurse to the next VM
+            findOptimalAllocationRecursive(vmIndex + 1);
+
+            // Backtrack
+            unplace(vm, host);
+        }
+
+        /**
+         * Allocates the VM and updates the objective and the remaining capacity of the touched hosts
+         */
+        private void place(int vm, int host) {
+            addHostHash(host, -1);
+            if (newVmsOnHost[host]++ == 0) {
+                additionalHostsUsed++;
+                addTouchedRemaining(host, 1);
+            }
+            model.allocateVm(vm, host);
+            addVmDemand(vm, -1);
+            addHostHash(host, 1);
+        }
+
+        private void unplace(int vm, int host) {
+            addHostHash(host, -1);
+            addVmDemand(vm, 1);
+            model.deallocateVm(vm);
+            if (--newVmsOnHost[host] == 0) {
+                additionalHostsUsed--;
+                addTouchedRemaining(host, -1);
+            }
+            addHostHash(host, 1);
+        }
+
+        private void addHostHash(int host, int sign) {
+            long hash1 = newVmsOnHost[host] > 0 ? TOUCHED : 0;
+            long hash2 = ~hash1;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                // Adding 0.0 turns -0.0 into 0.0
+                long remaining = Double.doubleToLongBits(model.remainingCapacity(host, d) + 0.0);
+                hash1 = mix(hash1 + remaining);
+                hash2 = mix(hash2 ^ remaining);
+            }
+            stateHash1 += sign * hash1;
+            stateHash2 += sign * hash2;
+        }
+
+        /**
+         * Records the state of the branch about to place unallocatedVms[vmIndex]
+         *
+         * @return true if the state was already explored at a rank at least as good, so its subtree can be cut off
+         */
+        private boolean isTransposition(int vmIndex) {
+            if (transpositionRank == null) {
+                if (nodes < transpositionMinNodes) {
+                    return false;
+                }
+                transpositionKey1 = new long[TRANSPOSITION_TABLE_SIZE];
+                transpositionKey2 = new long[TRANSPOSITION_TABLE_SIZE];
+                transpositionRank = new long[TRANSPOSITION_TABLE_SIZE];
+            }
+            long key1 = mix(stateHash1 + vmIndex * TOUCHED);
+            long key2 = mix(stateHash2 + vmIndex);
+            long rank = rank(additionalHostsUsed, taskIndex);
+            int slot = (int) key1 & (TRANSPOSITION_TABLE_SIZE - 1);
+            if (transpositionKey1[slot] == key1 && transpositionKey2[slot] == key2) {
+                if (transpositionRank[slot] <= rank) {
+                    return true;
+                }
+            }
+            // A colliding state is replaced, the most recent one is the most likely to be reached again
+            transpositionKey1[slot] = key1;
+            transpositionKey2[slot] = key2;
+            transpositionRank[slot] = rank;
+            return false;
+        }
+
+        private void addTouchedRemaining(int host, int sign) {
+            for (int d = 0; d < DIMENSIONS; d++) {
+                double remaining = sign * model.remainingCapacity(host, d);
+                touchedRemaining[d] += remaining;
+                if (scale[d] > 0) {
+                    touchedRemaining[DIMENSIONS] += remaining / scale[d];
+                }
             }
-            return;
         }
 
-        SimpleVm currentVm = unallocatedVms.get(vmIndex);
+        private void addVmDemand(int vm, int sign) {
+            for (int d = 0; d < DIMENSIONS; d++) {
+                double demand = sign * model.demand(vm, d);
+                touchedRemaining[d] += demand;
+                if (scale[d] > 0) {
+                    touchedRemaining[DIMENSIONS] += demand / scale[d];
+                }
+            }
+        }
 
-        for (SimpleHost host : hosts) {
-            if (host.canFitVm(currentVm)) {
-                // Try allocating the VM to this host
-                host.allocateVm(currentVm);
-                currentNewAllocation.put(currentVm.getId(), host.getId());
+        private boolean isBudgetExhausted() {
+            if (budgetExhausted) {
+                return true;
+            }
+            if (unflushedNodes >= TIME_CHECK_INTERVAL
+                    || (nodeLimit > 0 && exploredNodes.get() + unflushedNodes >= nodeLimit)) {
+                flushExploredNodes();
+                if ((nodeLimit > 0 && exploredNodes.get() >= nodeLimit)
+                        || (timeLimitNanos > 0 && System.nanoTime() > deadline)) {
+                    budgetExhausted = true;
+                }
+            }
+            return budgetExhausted;
+        }
 
-                // Recurse to the next VM
-                findOptimalAllocationRecursive(hosts, vmIndex + 1, currentNewAllocation);
+        private void flushExploredNodes() {
+            exploredNodes.addAndGet(unflushedNodes);
+            unflushedNodes = 0;
+            prunedNodes.addAndGet(unflushedPrunes);
+            unflushedPrunes = 0;
+            transpositionHits.addAndGet(unflushedTranspositionHits);
+            unflushedTranspositionHits = 0;
+        }
 
-                // Backtrack
-                host.deallocateVm(currentVm);
-                currentNewAllocation.remove(currentVm.getId());
+        /**
+         * Lower bound of the number of untouched hosts still needed to place unallocatedVms[vmIndex..]
+         */
+        private int lowerBound(int vmIndex) {
+            int bound = 0;
+            for (int d = 0; d < DIMENSIONS; d++) {
+                bound = Math.max(bound, hostsNeeded(suffixDemand[vmIndex][d] - touchedRemaining[d], scale[d]));
             }
+            return Math.max(bound, hostsNeeded(suffixDemand[vmIndex][DIMENSIONS] - touchedRemaining[DIMENSIONS], maxHostVolume));
+        }
+    }
+
+    /**
+     * SplitMix64 finalizer
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    static int hostsNeeded(double deficit, double capacityPerHost) {
+        if (deficit <= EPSILON) {
+            return 0;
+        }
+        if (capacityPerHost <= EPSILON) {
+            return Integer.MAX_VALUE / 2; // Demand that no host can serve
         }
+        return (int) Math.ceil(deficit / capacityPerHost - EPSILON);
     }
 
-    private List<SimpleHost> cloneHosts(List<SimpleHost> originalHosts) {
-        List<SimpleHost> clonedHosts = new ArrayList<>();
-        for (SimpleHost originalHost : originalHosts) {
-            SimpleHost clonedHost = new SimpleHost(
-                    originalHost.getId(),
-                    originalHost.getRam(),
-                    originalHost.getPes(),
-                    originalHost.getBw(),
-                    originalHost.getPower()
-            );
-            // Clone the already allocated VMs
-            for (Long vmId : originalHost.getAllocatedVmIds()) {
-                SimpleVm vm = findVmById(vmId);
-                if (vm != null) {
-                    clonedHost.allocateVm(vm);
+    /**
+     * Orders the VMs by dominant resource and precomputes everything the bounds and the symmetry breaking need
+     */
+    private void initializeBounds() {
+        int hostCount = model.getHostCount();
+        Arrays.fill(scale, 0);
+        for (int host = 0; host < hostCount; host++) {
+            for (int d = 0; d < DIMENSIONS; d++) {
+                scale[d] = Math.max(scale[d], model.remainingCapacity(host, d));
+            }
+        }
+        maxHostVolume = 0;
+        for (int host = 0; host < hostCount; host++) {
+            maxHostVolume = Math.max(maxHostVolume, remainingVolume(host));
+        }
+
+        unallocatedVms = Arrays.stream(unallocatedVms).boxed()
+                .sorted(Comparator.comparingDouble(this::dominantShare).reversed())
+                .mapToInt(Integer::intValue)
+                .toArray();
+
+        suffixDemand = new double[unallocatedVms.length + 1][DIMENSIONS + 1];
+        for (int i = unallocatedVms.length - 1; i >= 0; i--) {
+            for (int d = 0; d < DIMENSIONS; d++) {
+                double demand = model.demand(unallocatedVms[i], d);
+                suffixDemand[i][d] = suffixDemand[i + 1][d] + demand;
+                if (scale[d] > 0) {
+                    suffixDemand[i][DIMENSIONS] += demand / scale[d];
                 }
             }
-            clonedHosts.add(clonedHost);
+            suffixDemand[i][DIMENSIONS] += suffixDemand[i + 1][DIMENSIONS];
         }
-        return clonedHosts;
+
+        // Hosts sorted by remaining capacity, so that identical hosts are adjacent
+        Integer[] byCapacity = IntStream.range(0, hostCount).boxed().toArray(Integer[]::new);
+        Arrays.sort(byCapacity, this::compareRemainingCapacity);
+        hostClass = new int[hostCount];
+        int classCount = 0;
+        for (int i = 0; i < hostCount; i++) {
+            if (i > 0 && compareRemainingCapacity(byCapacity[i - 1], byCapacity[i]) != 0) {
+                classCount++;
+            }
+            hostClass[byCapacity[i]] = classCount;
+        }
+        hostClassCount = classCount + 1;
+
+        rootLowerBound = unallocatedVms.length == 0 ? 0 : Math.max(1, lowerBoundAtRoot());
+    }
+
+    private int compareRemainingCapacity(int host1, int host2) {
+        for (int d = 0; d < DIMENSIONS; d++) {
+            int comparison = Double.compare(model.remainingCapacity(host1, d), model.remainingCapacity(host2, d));
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return 0;
     }
 
-    private SimpleVm findVmById(Long vmId) {
-        return allVms.stream()
-                .filter(vm -> vm.getId() == vmId)
-                .findFirst()
-                .orElse(null);
+    private int lowerBoundAtRoot() {
+        int bound = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            bound = Math.max(bound, hostsNeeded(suffixDemand[0][d], scale[d]));
+        }
+        return Math.max(bound, hostsNeeded(suffixDemand[0][DIMENSIONS], maxHostVolume));
+    }
+
+    private double dominantShare(int vm) {
+        double share = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            if (scale[d] > 0) {
+                share = Math.max(share, model.demand(vm, d) / scale[d]);
+            }
+        }
+        return share;
+    }
+
+    /**
+     * Sum of the remaining capacities normalized by the largest host capacity of each dimension
+     */
+    private double remainingVolume(int host) {
+        double volume = 0;
+        for (int d = 0; d < DIMENSIONS; d++) {
+            if (scale[d] > 0) {
+                volume += model.remainingCapacity(host, d) / scale[d];
+            }
+        }
+        return volume;
     }
 
     public void printAllocation() {
-        System.out.println("Optimal New VM Allocation Results:");
-        System.out.println("Additional Hosts Used: " + minAdditionalHostsUsed);
+        printAllocation(System.out);
+    }
+
+    public void printAllocation(PrintStream out) {
+        out.println("Optimal New VM Allocation Results:");
+        out.println("Additional Hosts Used: " + minAdditionalHostsUsed
+                + (isOptimal() ? "" : " (search budget exhausted after " + exploredNodes + " nodes, best found so far)"));
         for (Map.Entry<Long, Long> entry : bestNewAllocation.entrySet()) {
-            System.out.println("VM " + entry.getKey() + " allocated to Host " + entry.getValue());
+            out.println("VM " + entry.getKey() + " allocated to Host " + entry.getValue());
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,288 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
+
+import dev.pratheeks.vmallocationsimulation.util.LongIntHashMap;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Struct-of-arrays mirror of {@link SimpleHost}s and {@link SimpleVm}s for the packing search.
+ * <p>
+ * Hosts and VMs are addressed by dense indices, capacities and free capacities live in parallel primitive arrays and
+ * the current VM -> host assignment is an int vector, so fitting, allocating and deallocating a VM never allocate.
+ * Power is the only fractional dimension and is kept in double arrays. The free capacity arrays are laid out for
+ * {@link FitKernel}, which tests a VM against many hosts at once for {@link #fitMask(int, long[])}.
+ */
+public class PackedCapacityModel {
+    public static final int DIMENSIONS = 4;
+    public static final int RAM = 0;
+    public static final int PES = 1;
+    public static final int BW = 2;
+    public static final int POWER = 3;
+    public static final int UNASSIGNED = -1;
+    public static final int HOSTS_PER_MASK_WORD = Long.SIZE;
+    private static final FitKernel FIT_KERNEL = FitKernel.best();
+
+    private int hostCount;
+    private final long[] hostId;
+    private final long[] ramCapacity;
+    private final long[] pesCapacity;
+    private final long[] bwCapacity;
+    private final double[] powerCapacity;
+    private final long[] ramFree;
+    private final long[] pesFree;
+    private final long[] bwFree;
+    private final double[] powerFree;
+
+    private int vmCount;
+    private final long[] vmId;
+    private final long[] vmRam;
+    private final long[] vmPes;
+    private final long[] vmBw;
+    private final double[] vmPower;
+    private final int[] assignment; // VM index -> host index
+
+    public PackedCapacityModel(int maxHosts, int maxVms) {
+        hostId = new long[maxHosts];
+        ramCapacity = new long[maxHosts];
+        pesCapacity = new long[maxHosts];
+        bwCapacity = new long[maxHosts];
+        powerCapacity = new double[maxHosts];
+        ramFree = new long[maxHosts];
+        pesFree = new long[maxHosts];
+        bwFree = new long[maxHosts];
+        powerFree = new double[maxHosts];
+
+        vmId = new long[maxVms];
+        vmRam = new long[maxVms];
+        vmPes = new long[maxVms];
+        vmBw = new long[maxVms];
+        vmPower = new double[maxVms];
+        assignment = new int[maxVms];
+        Arrays.fill(assignment, UNASSIGNED);
+    }
+
+    /**
+     * Deep copy, so that parallel searches can each work on their own model
+     */
+    public PackedCapacityModel(PackedCapacityModel other) {
+        this(other, other.vmId.length);
+    }
+
+    /**
+     * Deep copy with room for maxVms VMs in total, so that VMs can be added to a copy of a long-lived model
+     */
+    public PackedCapacityModel(PackedCapacityModel other, int maxVms) {
+        if (maxVms < other.vmCount) {
+            throw new IllegalArgumentException("Room for " + maxVms + " VMs, but the model has " + other.vmCount);
+        }
+        hostCount = other.hostCount;
+        hostId = other.hostId.clone();
+        ramCapacity = other.ramCapacity.clone();
+        pesCapacity = other.pesCapacity.clone();
+        bwCapacity = other.bwCapacity.clone();
+        powerCapacity = other.powerCapacity.clone();
+        ramFree = other.ramFree.clone();
+        pesFree = other.pesFree.clone();
+        bwFree = other.bwFree.clone();
+        powerFree = other.powerFree.clone();
+
+        vmCount = other.vmCount;
+        vmId = Arrays.copyOf(other.vmId, maxVms);
+        vmRam = Arrays.copyOf(other.vmRam, maxVms);
+        vmPes = Arrays.copyOf(other.vmPes, maxVms);
+        vmBw = Arrays.copyOf(other.vmBw, maxVms);
+        vmPower = Arrays.copyOf(other.vmPower, maxVms);
+        assignment = Arrays.copyOf(other.assignment, maxVms);
+        Arrays.fill(assignment, vmCount, maxVms, UNASSIGNED);
+    }
+
+    /**
+     * Mirrors the hosts and VMs, with the VMs allocated to the hosts listed by {@link SimpleHost#getAllocatedVmIds()}
+     * assigned to them. VM indices follow the order of the VM list, host indices the order of the host list.
+     */
+    public static PackedCapacityModel of(List<SimpleHost> hosts, List<SimpleVm> vms) {
+        PackedCapacityModel model = new PackedCapacityModel(hosts.size(), vms.size());
+        LongIntHashMap vmIndexById = new LongIntHashMap(vms.size());
+        for (SimpleVm vm : vms) {
+            vmIndexById.put(vm.getId(), model.addVm(vm));
+        }
+        for (SimpleHost simpleHost : hosts) {
+            int host = model.addHost(simpleHost);
+            for (Long vmId : simpleHost.getAllocatedVmIds()) {
+                int vm = vmIndexById.get(vmId, UNASSIGNED);
+                if (vm != UNASSIGNED) {
+                    model.allocateVm(vm, host);
+                }
+            }
+        }
+        return model;
+    }
+
+    /**
+     * @return the index of the added host
+     */
+    public int addHost(SimpleHost host) {
+        return addHost(host.getId(), host.getRam(), host.getPes(), host.getBw(), host.getPower());
+    }
+
+    /**
+     * @return the index of the added host
+     */
+    public int addHost(long id, long ram, long pes, long bw, double power) {
+        int h = hostCount++;
+        hostId[h] = id;
+        ramCapacity[h] = ram;
+        pesCapacity[h] = pes;
+        bwCapacity[h] = bw;
+        powerCapacity[h] = power;
+        ramFree[h] = ram;
+        pesFree[h] = pes;
+        bwFree[h] = bw;
+        powerFree[h] = power;
+        return h;
+    }
+
+    /**
+     * Accounts for capacity used on the host by a VM that is not part of the model, negative to release it
+     */
+    public void addHostUsage(int host, long ram, long pes, long bw, double power) {
+        ramFree[host] -= ram;
+        pesFree[host] -= pes;
+        bwFree[host] -= bw;
+        powerFree[host] -= power;
+    }
+
+    /**
+     * Uses up all the remaining capacity of the host, so that no VM fits on it anymore
+     */
+    public void exhaustHost(int host) {
+        ramFree[host] = Math.min(ramFree[host], 0);
+        pesFree[host] = Math.min(pesFree[host], 0);
+        bwFree[host] = Math.min(bwFree[host], 0);
+        powerFree[host] = Math.min(powerFree[host], 0);
+    }
+
+    /**
+     * @return the index of the added VM, initially unassigned
+     */
+    public int addVm(SimpleVm vm) {
+        return addVm(vm.getId(), vm.getRam(), vm.getPes(), vm.getBw(), vm.getPower());
+    }
+
+    /**
+     * @return the index of the added VM, initially unassigned
+     */
+    public int addVm(long id, long ram, long pes, long bw, double power) {
+        int v = vmCount++;
+        vmId[v] = id;
+        vmRam[v] = ram;
+        vmPes[v] = pes;
+        vmBw[v] = bw;
+        vmPower[v] = power;
+        return v;
+    }
+
+    public boolean canFitVm(int host, int vm) {
+        return ramFree[host] >= vmRam[vm]
+                && pesFree[host] >= vmPes[vm]
+                && bwFree[host] >= vmBw[vm]
+                && powerFree[host] >= vmPower[vm];
+    }
+
+    /**
+     * Sets the bit of every host the VM fits on, host h being bit h % 64 of word h / 64 of the mask, which must have
+     * {@link #maskWords(int)} words for the host count
+     */
+    public void fitMask(int vm, long[] mask) {
+        for (int word = 0, from = 0; from < hostCount; word++, from += HOSTS_PER_MASK_WORD) {
+            mask[word] = FIT_KERNEL.fitMask(ramFree, pesFree, bwFree, powerFree, from,
+                    Math.min(from + HOSTS_PER_MASK_WORD, hostCount), vmRam[vm], vmPes[vm], vmBw[vm], vmPower[vm]);
+        }
+    }
+
+    /**
+     * @return number of words of a mask with a bit per host
+     */
+    public static int maskWords(int hosts) {
+        return (hosts + HOSTS_PER_MASK_WORD - 1) / HOSTS_PER_MASK_WORD;
+    }
+
+    public void allocateVm(int vm, int host) {
+        assignment[vm] = host;
+        ramFree[host] -= vmRam[vm];
+        pesFree[host] -= vmPes[vm];
+        bwFree[host] -= vmBw[vm];
+        powerFree[host] -= vmPower[vm];
+    }
+
+    public void deallocateVm(int vm) {
+        int host = assignment[vm];
+        assignment[vm] = UNASSIGNED;
+        ramFree[host] += vmRam[vm];
+        pesFree[host] += vmPes[vm];
+        bwFree[host] += vmBw[vm];
+        powerFree[host] += vmPower[vm];
+    }
+
+    public double capacity(int host, int dimension) {
+        return switch (dimension) {
+            case RAM -> ramCapacity[host];
+            case PES -> pesCapacity[host];
+            case BW -> bwCapacity[host];
+            case POWER -> powerCapacity[host];
+            default -> throw new IllegalArgumentException("Invalid dimension: " + dimension);
+        };
+    }
+
+    public double remainingCapacity(int host, int dimension) {
+        return switch (dimension) {
+            case RAM -> ramFree[host];
+            case PES -> pesFree[host];
+            case BW -> bwFree[host];
+            case POWER -> powerFree[host];
+            default -> throw new IllegalArgumentException("Invalid dimension: " + dimension);
+        };
+    }
+
+    public double demand(int vm, int dimension) {
+        return switch (dimension) {
+            case RAM -> vmRam[vm];
+            case PES -> vmPes[vm];
+            case BW -> vmBw[vm];
+            case POWER -> vmPower[vm];
+            default -> throw new IllegalArgumentException("Invalid dimension: " + dimension);
+        };
+    }
+
+    public int getHostCount() {
+        return hostCount;
+    }
+
+    public int getVmCount() {
+        return vmCount;
+    }
+
+    public long getHostId(int host) {
+        return hostId[host];
+    }
+
+    public long getVmId(int vm) {
+        return vmId[vm];
+    }
+
+    /**
+     * @return the indices of the VMs not assigned to any host, in index order
+     */
+    public int[] unassignedVms() {
+        return IntStream.range(0, vmCount).filter(vm -> assignment[vm] == UNASSIGNED).toArray();
+    }
+
+    /**
+     * @return the index of the host the VM is assigned to, or {@link #UNASSIGNED}
+     */
+    public int getAssignment(int vm) {
+        return assignment[vm];
+    }
+}
@@ -0,0 +1,123 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
+
+import java.util.Arrays;
+
+/**
+ * Segment tree over slots holding hosts of a {@link PackedCapacityModel}, keeping the largest remaining capacity of
+ * each dimension per range of slots, to find the first slot whose host fits a VM without scanning the slots before
+ * it.
+ * <p>
+ * The search only enters a subtree whose largest capacities all cover the demand of the VM, which finds the first
+ * fitting slot in O(log n) when a single dimension decides which hosts fit; when different hosts of a subtree hold
+ * the largest capacity of different dimensions, it may enter subtrees that turn out to hold no fitting host. The
+ * tree only learns about changes to a host through {@link #refresh(int)}.
+ */
+class PackedFitTree {
+    private static final int DIMENSIONS = PackedCapacityModel.DIMENSIONS;
+
+    private final PackedCapacityModel model;
+    private final int leafCount;
+    private final int[] hostOfSlot;
+    /**
+     * Largest remaining capacity per dimension, node i covers nodes 2i and 2i+1, leaves start at leafCount, an
+     * empty slot fits no VM
+     */
+    private final double[][] maxRemaining = new double[DIMENSIONS][];
+
+    private PackedFitTree(PackedCapacityModel model, int slots) {
+        this.model = model;
+        leafCount = Math.max(1, Integer.highestOneBit(Math.max(1, slots - 1)) << 1);
+        hostOfSlot = new int[slots];
+        Arrays.fill(hostOfSlot, -1);
+        for (int d = 0; d < DIMENSIONS; d++) {
+            maxRemaining[d] = new double[2 * leafCount];
+            Arrays.fill(maxRemaining[d], Double.NEGATIVE_INFINITY);
+        }
+    }
+
+    /**
+     * @return a tree of the given number of slots, all empty
+     */
+    static PackedFitTree empty(PackedCapacityModel model, int slots) {
+        return new PackedFitTree(model, slots);
+    }
+
+    /**
+     * @return a tree holding host h of the model in slot h
+     */
+    static PackedFitTree ofAllHosts(PackedCapacityModel model) {
+        int hostCount = model.getHostCount();
+        PackedFitTree tree = new PackedFitTree(model, hostCount);
+        for (int host = 0; host < hostCount; host++) {
+            tree.hostOfSlot[host] = host;
+            tree.setLeaf(host);
+        }
+        for (int node = tree.leafCount - 1; node > 0; node--) {
+            tree.pull(node);
+        }
+        return tree;
+    }
+
+    /**
+     * Puts a host in a slot
+     */
+    void set(int slot, int host) {
+        hostOfSlot[slot] = host;
+        refresh(slot);
+    }
+
+    /**
+     * Empties a slot, which then fits no VM
+     */
+    void clear(int slot) {
+        hostOfSlot[slot] = -1;
+        refresh(slot);
+    }
+
+    /**
+     * Re-reads the remaining capacity of the host of a slot after VMs were placed on it
+     */
+    void refresh(int slot) {
+        setLeaf(slot);
+        for (int node = (slot + leafCount) >>> 1; node > 0; node >>>= 1) {
+            pull(node);
+        }
+    }
+
+    int hostOf(int slot) {
+        return hostOfSlot[slot];
+    }
+
+    /**
+     * @return the first slot whose host fits the VM, or -1
+     */
+    int findFirst(int vm) {
+        return findFirst(1, vm);
+    }
+
+    private int findFirst(int node, int vm) {
+        for (int d = 0; d < DIMENSIONS; d++) {
+            if (maxRemaining[d][node] < model.demand(vm, d)) {
+                return -1;
+            }
+        }
+        if (node >= leafCount) {
+            return node - leafCount;
+        }
+        int slot = findFirst(2 * node, vm);
+        return slot >= 0 ? slot : findFirst(2 * node + 1, vm);
+    }
+
+    private void setLeaf(int slot) {
+        int host = hostOfSlot[slot];
+        for (int d = 0; d < DIMENSIONS; d++) {
+            maxRemaining[d][leafCount + slot] = host < 0 ? Double.NEGATIVE_INFINITY : model.remainingCapacity(host, d);
+        }
+    }
+
+    private void pull(int node) {
+        for (int d = 0; d < DIMENSIONS; d++) {
+            maxRemaining[d][node] = Math.max(maxRemaining[d][2 * node], maxRemaining[d][2 * node + 1]);
+        }
+    }
+}
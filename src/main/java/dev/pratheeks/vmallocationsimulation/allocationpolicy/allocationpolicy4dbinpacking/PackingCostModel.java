@@ -0,0 +1,124 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
+
+/**
+ * Online model of the wall clock time of a packing algorithm, fitted to the measured times of its previous runs, so
+ * that a policy can tell whether a run fits in its latency budget before starting it.
+ * <p>
+ * The model is linear in the log of the time, over the features 1, ln(1 + VMs), VMs, ln(1 + hosts) and occupancy:
+ * ln(VMs) and ln(hosts) capture polynomial algorithms, VMs the exponential growth of the exact search. It is fitted
+ * by exponentially weighted ridge least squares, so that it follows the problems as the simulation changes them.
+ * The weighted normal equations are updated per observation and solved per prediction, which takes a few hundred
+ * floating point operations.
+ */
+public class PackingCostModel {
+    private static final int FEATURES = 5;
+    private static final int DIMENSIONS = PackedCapacityModel.DIMENSIONS;
+    /**
+     * Weight of the past observations after each new one
+     */
+    private static final double FORGETTING_FACTOR = 0.95;
+    private static final double RIDGE = 1e-3;
+    /**
+     * Observations before the model predicts anything
+     */
+    private static final int MIN_OBSERVATIONS = 5;
+
+    private final double[][] xtx = new double[FEATURES][FEATURES];
+    private final double[] xty = new double[FEATURES];
+    private int observations = 0;
+
+    /**
+     * Records the time a run took
+     */
+    public void observe(int vms, int hosts, double occupancy, long nanos) {
+        double[] x = features(vms, hosts, occupancy);
+        double y = Math.log(Math.max(nanos, 1));
+        for (int i = 0; i < FEATURES; i++) {
+            for (int j = 0; j < FEATURES; j++) {
+                xtx[i][j] = FORGETTING_FACTOR * xtx[i][j] + x[i] * x[j];
+            }
+            xty[i] = FORGETTING_FACTOR * xty[i] + x[i] * y;
+        }
+        observations++;
+    }
+
+    /**
+     * @return the predicted time of a run in nanoseconds, NaN until the model has enough observations
+     */
+    public double predictNanos(int vms, int hosts, double occupancy) {
+        if (observations < MIN_OBSERVATIONS) {
+            return Double.NaN;
+        }
+        double[] weights = solve();
+        double[] x = features(vms, hosts, occupancy);
+        double logNanos = 0;
+        for (int i = 0; i < FEATURES; i++) {
+            logNanos += weights[i] * x[i];
+        }
+        return Math.exp(logNanos);
+    }
+
+    public int getObservations() {
+        return observations;
+    }
+
+    /**
+     * @return the mean share of the capacity of the hosts that is used, over the dimensions the hosts have
+     */
+    public static double occupancy(PackedCapacityModel model) {
+        double used = 0;
+        int shares = 0;
+        for (int host = 0; host < model.getHostCount(); host++) {
+            for (int d = 0; d < DIMENSIONS; d++) {
+                double capacity = model.capacity(host, d);
+                if (capacity > 0) {
+                    used += Math.min(1, 1 - model.remainingCapacity(host, d) / capacity);
+                    shares++;
+                }
+            }
+        }
+        return shares == 0 ? 0 : used / shares;
+    }
+
+    private static double[] features(int vms, int hosts, double occupancy) {
+        return new double[]{1, Math.log1p(vms), vms, Math.log1p(hosts), occupancy};
+    }
+
+    /**
+     * Solves (X'X + ridge I) w = X'y by Gaussian elimination with partial pivoting
+     */
+    private double[] solve() {
+        double[][] a = new double[FEATURES][FEATURES + 1];
+        for (int i = 0; i < FEATURES; i++) {
+            System.arraycopy(xtx[i], 0, a[i], 0, FEATURES);
+            a[i][i] += RIDGE;
+            a[i][FEATURES] = xty[i];
+        }
+        for (int column = 0; column < FEATURES; column++) {
+            int pivot = column;
+            for (int row = column + 1; row < FEATURES; row++) {
+                if (Math.abs(a[row][column]) > Math.abs(a[pivot][column])) {
+                    pivot = row;
+                }
+            }
+            double[] swap = a[column];
+            a[column] = a[pivot];
+            a[pivot] = swap;
+            for (int row = column + 1; row < FEATURES; row++) {
+                double factor = a[row][column] / a[column][column];
+                for (int k = column; k <= FEATURES; k++) {
+                    a[row][k] -= factor * a[column][k];
+                }
+            }
+        }
+        double[] weights = new double[FEATURES];
+        for (int row = FEATURES - 1; row >= 0; row--) {
+            double sum = a[row][FEATURES];
+            for (int k = row + 1; k < FEATURES; k++) {
+                sum -= a[row][k] * weights[k];
+            }
+            weights[row] = sum / a[row][row];
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,21 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
+
+/**
+ * Algorithm computing the packing of a single recalculation, see
+ * {@link VmAllocationPolicy4DPackingAbstract#recalculatePacking(java.util.Collection, java.util.List, PackingEngine)}
+ */
+public enum PackingEngine {
+    /**
+     * The packing of the policy: the exact search of {@link VmAllocationPolicy4DBinPacking}, the strategy of the
+     * {@link VmAllocationPolicy4DHeuristic} policies
+     */
+    POLICY,
+    /**
+     * {@link HeuristicBinPacking.Strategy#DOT_PRODUCT}, in a single pass
+     */
+    GREEDY,
+    /**
+     * {@link LocalSearchBinPacking} within the local search time limit of the policy
+     */
+    LOCAL_SEARCH
+}
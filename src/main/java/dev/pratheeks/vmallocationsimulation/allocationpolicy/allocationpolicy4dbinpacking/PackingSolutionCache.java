@@ -0,0 +1,247 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
+
+import dev.pratheeks.vmallocationsimulation.util.LongIntHashMap;
+
+import java.util.*;
+
+/**
+ * Bounded cache of the optimal allocations found by {@link OptimalBinPacking}, evicting the least recently used.
+ * <p>
+ * Problems are keyed by a canonical signature: the shapes of the VMs to allocate, sorted, then the remaining
+ * capacities of the hosts, sorted, where hosts that none of the VMs fits on are left out, capacity beyond the total
+ * demand of the VMs is clamped to it, and of several hosts with the same clamped capacity no more are kept than there
+ * are VMs. None of this changes which allocations are possible, so problems that differ only by the order, the IDs or
+ * the spare capacity of their hosts share an entry, and a cached allocation mapped back onto the hosts of the problem
+ * is optimal for it, though not necessarily the one a search would find.
+ * <p>
+ * The methods are synchronized, so the policies of concurrent runs can share a cache, at the cost of runs whose
+ * allocations depend on the order the runs fill the cache in.
+ */
+public class PackingSolutionCache {
+    private static final int DIMENSIONS = PackedCapacityModel.DIMENSIONS;
+    /**
+     * Cached value of a problem with no possible allocation
+     */
+    private static final int[] NO_ALLOCATION = new int[0];
+
+    private final Map<Key, int[]> entries;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param capacity maximum number of cached allocations
+     */
+    public PackingSolutionCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+        }
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, int[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Computes the signature of the allocation of the VMs onto the model hosts, the model must not change until the
+     * signature is no longer used
+     */
+    public Signature signature(PackedCapacityModel model, int[] vmsToAllocate) {
+        Integer[] vmOrder = new Integer[vmsToAllocate.length];
+        double[] totalDemand = new double[DIMENSIONS];
+        for (int i = 0; i < vmsToAllocate.length; i++) {
+            vmOrder[i] = vmsToAllocate[i];
+            for (int d = 0; d < DIMENSIONS; d++) {
+                totalDemand[d] += model.demand(vmsToAllocate[i], d);
+            }
+        }
+        Arrays.sort(vmOrder, (vm1, vm2) -> compare(demand(model, vm1), demand(model, vm2)));
+
+        // Hosts at least one VM fits on, with their clamped capacity
+        List<Integer> usefulHosts = new ArrayList<>();
+        double[][] clamped = new double[model.getHostCount()][];
+        for (int host = 0; host < model.getHostCount(); host++) {
+            for (int vm : vmsToAllocate) {
+                if (model.canFitVm(host, vm)) {
+                    clamped[host] = new double[DIMENSIONS];
+                    for (int d = 0; d < DIMENSIONS; d++) {
+                        // Adding 0.0 turns -0.0 into 0.0
+                        clamped[host][d] = Math.min(model.remainingCapacity(host, d), totalDemand[d]) + 0.0;
+                    }
+                    usefulHosts.add(host);
+                    break;
+                }
+            }
+        }
+        usefulHosts.sort((host1, host2) -> {
+            int comparison = compare(clamped[host1], clamped[host2]);
+            return comparison != 0 ? comparison : Integer.compare(host1, host2);
+        });
+
+        // Keep at most as many hosts of a class as there are VMs
+        int[] hostClass = new int[model.getHostCount()];
+        Arrays.fill(hostClass, -1);
+        List<Integer> hostOrder = new ArrayList<>();
+        List<Integer> classStart = new ArrayList<>();
+        int inClass = 0;
+        for (int i = 0; i < usefulHosts.size(); i++) {
+            int host = usefulHosts.get(i);
+            if (i == 0 || compare(clamped[usefulHosts.get(i - 1)], clamped[host]) != 0) {
+                classStart.add(hostOrder.size());
+                inClass = 0;
+            }
+            hostClass[host] = classStart.size() - 1;
+            if (inClass++ < vmsToAllocate.length) {
+                hostOrder.add(host);
+            }
+        }
+        classStart.add(hostOrder.size());
+
+        long[] key = new long[2 + (vmsToAllocate.length + hostOrder.size()) * DIMENSIONS];
+        int k = 0;
+        key[k++] = vmsToAllocate.length;
+        for (int vm : vmOrder) {
+            for (double demand : demand(model, vm)) {
+                key[k++] = Double.doubleToLongBits(demand + 0.0);
+            }
+        }
+        key[k++] = hostOrder.size();
+        for (int host : hostOrder) {
+            for (double capacity : clamped[host]) {
+                key[k++] = Double.doubleToLongBits(capacity);
+            }
+        }
+        return new Signature(model, new Key(key), Arrays.stream(vmOrder).mapToInt(Integer::intValue).toArray(),
+                hostOrder.stream().mapToInt(Integer::intValue).toArray(), hostClass,
+                classStart.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    /**
+     * @return the cached allocation (VM ID -> host ID) mapped onto the hosts of the signature, empty if the problem
+     * has no possible allocation, or null if it is not cached
+     */
+    public synchronized Map<Long, Long> get(Signature signature) {
+        int[] canonical = entries.get(signature.key);
+        if (canonical == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        Map<Long, Long> allocation = new HashMap<>();
+        for (int i = 0; i < canonical.length; i++) {
+            allocation.put(signature.model.getVmId(signature.vmOrder[i]),
+                    signature.model.getHostId(signature.hostOrder[canonical[i]]));
+        }
+        return allocation;
+    }
+
+    /**
+     * Caches the optimal allocation (VM ID -> host ID) of the problem of the signature, empty if it has none.
+     * Partial allocations are not cached.
+     */
+    public synchronized void put(Signature signature, Map<Long, Long> allocation) {
+        int vmCount = signature.vmOrder.length;
+        if (allocation.isEmpty()) {
+            entries.put(signature.key, NO_ALLOCATION);
+            return;
+        }
+        if (allocation.size() != vmCount) {
+            return;
+        }
+        LongIntHashMap hostIndexById = new LongIntHashMap(signature.model.getHostCount());
+        for (int host = 0; host < signature.model.getHostCount(); host++) {
+            hostIndexById.put(signature.model.getHostId(host), host);
+        }
+        // Hosts of a class are interchangeable, the ones used are mapped onto the first positions of their class
+        int[] nextInClass = Arrays.copyOf(signature.classStart, signature.classStart.length - 1);
+        LongIntHashMap positionByHost = new LongIntHashMap(vmCount);
+        int[] canonical = new int[vmCount];
+        for (int i = 0; i < vmCount; i++) {
+            Long hostId = allocation.get(signature.model.getVmId(signature.vmOrder[i]));
+            int host = hostId == null ? -1 : hostIndexById.get(hostId, -1);
+            if (host < 0 || signature.hostClass[host] < 0) {
+                return;
+            }
+            int position = positionByHost.get(host, -1);
+            if (position < 0) {
+                position = nextInClass[signature.hostClass[host]]++;
+                positionByHost.put(host, position);
+            }
+            canonical[i] = position;
+        }
+        entries.put(signature.key, canonical);
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private static double[] demand(PackedCapacityModel model, int vm) {
+        double[] demand = new double[DIMENSIONS];
+        for (int d = 0; d < DIMENSIONS; d++) {
+            demand[d] = model.demand(vm, d);
+        }
+        return demand;
+    }
+
+    private static int compare(double[] a, double[] b) {
+        for (int d = 0; d < DIMENSIONS; d++) {
+            int comparison = Double.compare(a[d], b[d]);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Canonical form of a problem, with the order of its VMs and hosts in that form
+     */
+    public static class Signature {
+        private final PackedCapacityModel model;
+        private final Key key;
+        private final int[] vmOrder; // Model VM index per canonical VM
+        private final int[] hostOrder; // Model host index per canonical host position
+        private final int[] hostClass; // Class of each model host, -1 for the hosts no VM fits on
+        private final int[] classStart; // First canonical host position of each class, then the number of positions
+
+        private Signature(PackedCapacityModel model, Key key, int[] vmOrder, int[] hostOrder, int[] hostClass,
+                          int[] classStart) {
+            this.model = model;
+            this.key = key;
+            this.vmOrder = vmOrder;
+            this.hostOrder = hostOrder;
+            this.hostClass = hostClass;
+            this.classStart = classStart;
+        }
+    }
+
+    private static final class Key {
+        private final long[] values;
+        private final int hash;
+
+        private Key(long[] values) {
+            this.values = values;
+            this.hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key key && hash == key.hash && Arrays.equals(values, key.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
+
+/**
+ * {@link FitKernel} comparing one host at a time, for JVMs without the vector module
+ */
+class ScalarFitKernel implements FitKernel {
+    @Override
+    public long fitMask(long[] ramFree, long[] pesFree, long[] bwFree, double[] powerFree, int from, int to,
+                        long ram, long pes, long bw, double power) {
+        long mask = 0;
+        for (int host = from; host < to; host++) {
+            if (ramFree[host] >= ram && pesFree[host] >= pes && bwFree[host] >= bw && powerFree[host] >= power) {
+                mask |= 1L << (host - from);
+            }
+        }
+        return mask;
+    }
+}
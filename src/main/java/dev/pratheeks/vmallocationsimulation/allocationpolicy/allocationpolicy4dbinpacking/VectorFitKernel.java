@@ -0,0 +1,57 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link FitKernel} comparing a vector of hosts per instruction and dimension, 8 hosts with AVX-512 and 4 with AVX2,
+ * the remaining hosts of a run one at a time. Only loaded through {@link FitKernel#vector()}.
+ */
+class VectorFitKernel implements FitKernel {
+    private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    /**
+     * Bit i in lane i: blended under the fit mask and OR-reduced, it gives the bits of the mask, as
+     * VectorMask.toLong() is not intrinsified before JDK 18
+     */
+    private static final LongVector LANE_BITS = LongVector.fromArray(LONGS, laneBits(), 0);
+    private static final LongVector ZERO = LongVector.zero(LONGS);
+
+    VectorFitKernel() {
+        if (LONGS.length() != DOUBLES.length()) {
+            throw new IllegalStateException("Long and double vectors have different lane counts");
+        }
+    }
+
+    @Override
+    public long fitMask(long[] ramFree, long[] pesFree, long[] bwFree, double[] powerFree, int from, int to,
+                        long ram, long pes, long bw, double power) {
+        long mask = 0;
+        int host = from;
+        for (int bound = from + LONGS.loopBound(to - from); host < bound; host += LONGS.length()) {
+            VectorMask<Long> fits = LongVector.fromArray(LONGS, ramFree, host).compare(VectorOperators.GE, ram)
+                    .and(LongVector.fromArray(LONGS, pesFree, host).compare(VectorOperators.GE, pes))
+                    .and(LongVector.fromArray(LONGS, bwFree, host).compare(VectorOperators.GE, bw))
+                    .and(DoubleVector.fromArray(DOUBLES, powerFree, host).compare(VectorOperators.GE, power)
+                            .cast(LONGS));
+            mask |= ZERO.blend(LANE_BITS, fits).reduceLanes(VectorOperators.OR) << (host - from);
+        }
+        for (; host < to; host++) {
+            if (ramFree[host] >= ram && pesFree[host] >= pes && bwFree[host] >= bw && powerFree[host] >= power) {
+                mask |= 1L << (host - from);
+            }
+        }
+        return mask;
+    }
+
+    private static long[] laneBits() {
+        long[] bits = new long[LONGS.length()];
+        for (int lane = 0; lane < bits.length; lane++) {
+            bits[lane] = 1L << lane;
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,10 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
+
+/**
+ * Repacks with {@link HeuristicBinPacking.Strategy#BEST_FIT_DECREASING}
+ */
+public class VmAllocationPolicy4DBestFitDecreasing extends VmAllocationPolicy4DHeuristic {
+    public VmAllocationPolicy4DBestFitDecreasing() {
+        super(HeuristicBinPacking.Strategy.BEST_FIT_DECREASING);
+    }
+}
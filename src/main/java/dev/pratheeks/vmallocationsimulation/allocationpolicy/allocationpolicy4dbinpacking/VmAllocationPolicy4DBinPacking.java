@@ -1,96 +1,199 @@
 package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
 
-import org.cloudsimplus.allocationpolicies.VmAllocationPolicy;
-import org.cloudsimplus.allocationpolicies.VmAllocationPolicyAbstract;
-import org.cloudsimplus.hosts.Host;
-import org.cloudsimplus.vms.Vm;
+import dev.pratheeks.vmallocationsimulation.metrics.Metric;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
 
-public class VmAllocationPolicy4DBinPacking extends VmAllocationPolicyAbstract implements VmAllocationPolicy {
+/**
+ * Repacks with the exact {@link OptimalBinPacking} search, within its search limits.
+ * <p>
+ * Given a latency SLO, the exact search is only used when it is predicted to fit in the SLO of a recalculation, and
+ * otherwise a local search bounded by the SLO, or a single greedy pass when not even that fits. Predictions come
+ * from {@link PackingCostModel}s fitted to the measured times of the previous recalculations, so the same policy
+ * runs on any number of hosts. The engine chosen for each recalculation is traced. Without an SLO, the default, the
+ * policy always searches exactly, see {@link VmAllocationPolicy4DBinPackingSlo} for the policy with an SLO.
+ */
+public class VmAllocationPolicy4DBinPacking extends VmAllocationPolicy4DPackingAbstract {
+    private static final HeuristicBinPacking.Strategy WARM_START_STRATEGY = HeuristicBinPacking.Strategy.DOT_PRODUCT;
+    private static final int SOLUTION_CACHE_CAPACITY = 128;
+    /**
+     * Factor applied to the time of an exact search stopped by its budget before the cost model learns it, as the
+     * search would have taken longer to finish
+     */
+    private static final int BUDGET_EXHAUSTED_INFLATION = 4;
+    /**
+     * A local search is only worth it when the greedy allocation it starts from takes at most this share of the SLO
+     */
+    private static final double LOCAL_SEARCH_SEED_SHARE = 0.5;
+    /**
+     * Recalculations after which an exact search is tried again whatever its prediction, so that the cost model
+     * keeps learning from it
+     */
+    private static final int EXACT_EXPLORATION_INTERVAL = 32;
+    /**
+     * Search pools of each parallelism, shared by the policies as a sweep creates one policy per run
+     */
+    private static final ConcurrentMap<Integer, ForkJoinPool> SEARCH_POOLS = new ConcurrentHashMap<>();
 
-    private int initialAllocationLastHostIndex = 0;
-    private Map<Long, Long> currentOptimumAllocation = null; // Current optimal allocation VM_ID -> HOST_ID
+    /**
+     * Engines the policy chooses from for each recalculation
+     */
+    public enum Engine {
+        /**
+         * Exact search, within the search limits of the policy and the SLO
+         */
+        EXACT,
+        /**
+         * Local search within the SLO
+         */
+        BOUNDED,
+        /**
+         * Single greedy pass
+         */
+        HEURISTIC
+    }
 
     /**
-     * Recalculate the packing of VMs on a single host
+     * Search budget of a single packing recalculation, a non-positive value disables the limit.
+     * When the budget runs out the best allocation found so far is used.
      */
-    public void recalculatePacking(Host sourceHost) {
-        List<Host> allSimHostList = getHostList();
-        List<SimpleHost> possibleDestinationHosts = new ArrayList<>();
-        List<SimpleVm> allVms = new ArrayList<>();
-        for (Host host : allSimHostList) {
-            if (host.getId() != sourceHost.getId()) {
-                final var simpleHost = new SimpleHost(host.getId(), host.getRam().getCapacity(), host.getPesNumber(),
-                        host.getBw().getCapacity(), host.getPowerModel().getPower(1.0));
-                for (Vm vm : host.getVmList()) {
-                    final var simpleVm = new SimpleVm(vm.getId(), vm.getRam().getCapacity(), vm.getPesNumber(),
-                            vm.getBw().getCapacity(), 0.0
-                            // TODO: Add VM power utilization when computing the allocation
-                            // vm.getPowerModel().getPower()
-                    );
-                    simpleHost.allocateVm(simpleVm);
-                    allVms.add(simpleVm);
-                }
-                possibleDestinationHosts.add(simpleHost);
-            }
-        }
+    private final long searchTimeLimitMillis;
+    private final long searchNodeLimit;
+    /**
+     * Number of threads searching for the packing, 1 for a sequential search
+     */
+    private final int searchParallelism;
+    /**
+     * Optimal allocations of earlier recalculations, of this policy only unless a shared cache is set
+     */
+    private PackingSolutionCache solutionCache = new PackingSolutionCache(SOLUTION_CACHE_CAPACITY);
+    /**
+     * Wall clock budget of a recalculation the engine is chosen for, a non-positive value always searches exactly
+     */
+    private final long latencySloMillis;
+    private final PackingCostModel exactCostModel = new PackingCostModel();
+    private final PackingCostModel greedyCostModel = new PackingCostModel();
+    private int recalculationsSinceExact = 0;
 
-        // Add the VMs from the source host
-        for (Vm vm : sourceHost.getVmList()) {
-            final var simpleVm = new SimpleVm(vm.getId(), vm.getRam().getCapacity(), vm.getPesNumber(),
-                    vm.getBw().getCapacity(), 0.0
-                    // TODO: Add VM power utilization when computing the allocation
-                    // vm.getPowerModel().getPower()
-            );
-            allVms.add(simpleVm);
-        }
+    public VmAllocationPolicy4DBinPacking() {
+        this(2_000, 0);
+    }
 
-        final var optimalBinPacking = new OptimalBinPacking(possibleDestinationHosts, allVms);
-        currentOptimumAllocation = optimalBinPacking.findOptimalAllocation();
-        optimalBinPacking.printAllocation();
+    public VmAllocationPolicy4DBinPacking(long searchTimeLimitMillis, long searchNodeLimit) {
+        this(searchTimeLimitMillis, searchNodeLimit, 1);
     }
 
-    @Override
-    protected Optional<Host> defaultFindHostForVm(Vm vm) {
-        // Optimum calculation not done yet, do the initial allocation using FirstFit
-        if (currentOptimumAllocation == null) {
-            return initialAllocationFindHostForVm(vm);
-        }
+    public VmAllocationPolicy4DBinPacking(long searchTimeLimitMillis, long searchNodeLimit, int searchParallelism) {
+        this(searchTimeLimitMillis, searchNodeLimit, searchParallelism, 0);
+    }
 
-        // Optimum calculation done, return the host from the current allocation
-        long allocatedHostId = currentOptimumAllocation.getOrDefault(vm.getId(), -1L);
-        if (allocatedHostId != -1) {
-            return getHostList().stream().filter(h -> h.getId() == allocatedHostId).findFirst();
+    /**
+     * @param latencySloMillis wall clock budget of a recalculation the engine is chosen for, a non-positive value
+     *                         always searches exactly
+     */
+    public VmAllocationPolicy4DBinPacking(long searchTimeLimitMillis, long searchNodeLimit, int searchParallelism,
+                                          long latencySloMillis) {
+        super();
+        if (searchParallelism < 1) {
+            throw new IllegalArgumentException("Search parallelism must be at least 1: " + searchParallelism);
         }
-        // VM not found in the current allocation
-        return Optional.empty();
+        this.searchTimeLimitMillis = searchTimeLimitMillis;
+        this.searchNodeLimit = searchNodeLimit;
+        this.searchParallelism = searchParallelism;
+        this.latencySloMillis = latencySloMillis;
+    }
+
+    /**
+     * Sets the cache of optimal allocations, to share it with other policies, null to always search
+     */
+    public void setSolutionCache(PackingSolutionCache solutionCache) {
+        this.solutionCache = solutionCache;
     }
 
+    public PackingSolutionCache getSolutionCache() {
+        return solutionCache;
+    }
+
+    @Override
+    protected Map<Long, Long> computeAllocation(PackedCapacityModel model) {
+        final int vms = model.unassignedVms().length;
+        final int hosts = model.getHostCount();
+        final double occupancy = latencySloMillis > 0 ? PackingCostModel.occupancy(model) : 0;
+        final double predictedNanos = exactCostModel.predictNanos(vms, hosts, occupancy);
+        final Engine engine = selectEngine(vms, hosts, occupancy, predictedNanos);
 
-    private Optional<Host> initialAllocationFindHostForVm(final Vm vm) {
-        final List<Host> hostList = getHostList();
-        /* The for loop just defines the maximum number of Hosts to try.
-         * When a suitable Host is found, the method returns immediately. */
-        final int maxTries = hostList.size();
-        for (int i = 0; i < maxTries; i++) {
-            final Host host = hostList.get(initialAllocationLastHostIndex);
-            if (host.isSuitableForVm(vm)) {
-                return Optional.of(host);
+        long start = System.nanoTime();
+        final Map<Long, Long> allocation = switch (engine) {
+            case EXACT -> computeExactAllocation(model, vms, hosts, occupancy);
+            case BOUNDED -> computeLocalSearchAllocation(model, latencySloMillis);
+            case HEURISTIC -> {
+                final Map<Long, Long> greedyAllocation = computeHeuristicAllocation(model, WARM_START_STRATEGY);
+                greedyCostModel.observe(vms, hosts, occupancy, System.nanoTime() - start);
+                yield greedyAllocation;
             }
+        };
+        long elapsed = System.nanoTime() - start;
+        getTrace().packingEngineSelected(engine.ordinal(), vms, hosts,
+                Double.isNaN(predictedNanos) ? -1 : (long) Math.min(predictedNanos / 1000, Long.MAX_VALUE),
+                elapsed / 1000);
+        return allocation;
+    }
 
-            /* If it gets here, the previous Host doesn't have capacity to place the VM.
-             * Then, moves to the next Host.*/
-            incLastHostIndex();
+    /**
+     * Searches exactly while the cost model cannot predict yet, when it predicts the search fits in the SLO and
+     * every {@link #EXACT_EXPLORATION_INTERVAL} recalculations, otherwise searches locally if the greedy allocation
+     * leaves it time to
+     */
+    private Engine selectEngine(int vms, int hosts, double occupancy, double predictedExactNanos) {
+        if (latencySloMillis <= 0) {
+            return Engine.EXACT;
         }
-
-        return Optional.empty();
+        final double sloNanos = latencySloMillis * 1e6;
+        if (Double.isNaN(predictedExactNanos) || predictedExactNanos <= sloNanos
+                || recalculationsSinceExact >= EXACT_EXPLORATION_INTERVAL) {
+            recalculationsSinceExact = 0;
+            return Engine.EXACT;
+        }
+        recalculationsSinceExact++;
+        final double predictedGreedyNanos = greedyCostModel.predictNanos(vms, hosts, occupancy);
+        return Double.isNaN(predictedGreedyNanos) || predictedGreedyNanos <= LOCAL_SEARCH_SEED_SHARE * sloNanos
+                ? Engine.BOUNDED : Engine.HEURISTIC;
     }
 
-    private void incLastHostIndex() {
-        initialAllocationLastHostIndex = ++initialAllocationLastHostIndex % getHostList().size();
+    private Map<Long, Long> computeExactAllocation(PackedCapacityModel model, int vmsToAllocate, int hosts,
+                                                   double occupancy) {
+        final ForkJoinPool searchPool = searchParallelism > 1
+                ? SEARCH_POOLS.computeIfAbsent(searchParallelism, ForkJoinPool::new) : null;
+        // The search stops at the SLO with the best allocation found so far, at worst the greedy one
+        final long timeLimitMillis = latencySloMillis <= 0 ? searchTimeLimitMillis
+                : searchTimeLimitMillis <= 0 ? latencySloMillis : Math.min(searchTimeLimitMillis, latencySloMillis);
+        final var optimalBinPacking = new OptimalBinPacking(model, timeLimitMillis, searchNodeLimit, searchPool);
+        // Start from a greedy packing, the search then only has to prove it optimal or improve on it
+        long greedyStart = System.nanoTime();
+        optimalBinPacking.setInitialIncumbent(new HeuristicBinPacking(model, WARM_START_STRATEGY).findAllocation());
+        greedyCostModel.observe(vmsToAllocate, hosts, occupancy, System.nanoTime() - greedyStart);
+        optimalBinPacking.setSolutionCache(solutionCache);
+        final Map<Long, Long> optimumAllocation = optimalBinPacking.findOptimalAllocation();
+        long elapsed = System.nanoTime() - greedyStart;
+        // A cached allocation says nothing of the search time, a search stopped by its budget only gives a lower
+        // bound of it
+        if (!optimalBinPacking.isSolutionCacheHit()) {
+            exactCostModel.observe(vmsToAllocate, hosts, occupancy,
+                    optimalBinPacking.isOptimal() ? elapsed : elapsed * BUDGET_EXHAUSTED_INFLATION);
+        }
+        getTrace().packingComputed(vmsToAllocate, new HashSet<>(optimumAllocation.values()).size(),
+                vmsToAllocate - optimumAllocation.size(), optimalBinPacking.isOptimal(),
+                optimalBinPacking.getExploredNodes());
+        getMetrics().recordSearch(optimalBinPacking.getExploredNodes(), optimalBinPacking.getPrunedNodes(),
+                optimalBinPacking.getTranspositionHits(), optimalBinPacking.getIncumbentUpdates(),
+                optimalBinPacking.getTimeToFirstSolutionNanos());
+        if (optimalBinPacking.isSolutionCacheLookedUp()) {
+            getMetrics().record(Metric.SOLUTION_CACHE_HIT, optimalBinPacking.isSolutionCacheHit() ? 1 : 0);
+        }
+        return optimumAllocation;
     }
 }
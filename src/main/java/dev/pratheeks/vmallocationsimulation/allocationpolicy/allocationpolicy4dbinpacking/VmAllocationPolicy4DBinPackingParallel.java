@@ -0,0 +1,15 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
+
+/**
+ * {@link VmAllocationPolicy4DBinPacking} splitting its exact search over several threads, by default as many as
+ * there are CPUs
+ */
+public class VmAllocationPolicy4DBinPackingParallel extends VmAllocationPolicy4DBinPacking {
+    public VmAllocationPolicy4DBinPackingParallel() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public VmAllocationPolicy4DBinPackingParallel(int searchParallelism) {
+        super(2_000, 0, searchParallelism);
+    }
+}
@@ -0,0 +1,17 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
+
+/**
+ * {@link VmAllocationPolicy4DBinPacking} with a latency SLO, choosing the packing engine of each recalculation from
+ * its predicted time rather than always searching exactly
+ */
+public class VmAllocationPolicy4DBinPackingSlo extends VmAllocationPolicy4DBinPacking {
+    public static final long DEFAULT_LATENCY_SLO_MILLIS = 100;
+
+    public VmAllocationPolicy4DBinPackingSlo() {
+        this(DEFAULT_LATENCY_SLO_MILLIS);
+    }
+
+    public VmAllocationPolicy4DBinPackingSlo(long latencySloMillis) {
+        super(2_000, 0, 1, latencySloMillis);
+    }
+}
@@ -0,0 +1,10 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
+
+/**
+ * Repacks with {@link HeuristicBinPacking.Strategy#DOT_PRODUCT}
+ */
+public class VmAllocationPolicy4DDotProduct extends VmAllocationPolicy4DHeuristic {
+    public VmAllocationPolicy4DDotProduct() {
+        super(HeuristicBinPacking.Strategy.DOT_PRODUCT);
+    }
+}
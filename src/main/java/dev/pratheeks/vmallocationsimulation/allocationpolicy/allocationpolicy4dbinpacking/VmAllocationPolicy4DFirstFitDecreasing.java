@@ -0,0 +1,10 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
+
+/**
+ * Repacks with {@link HeuristicBinPacking.Strategy#FIRST_FIT_DECREASING}
+ */
+public class VmAllocationPolicy4DFirstFitDecreasing extends VmAllocationPolicy4DHeuristic {
+    public VmAllocationPolicy4DFirstFitDecreasing() {
+        super(HeuristicBinPacking.Strategy.FIRST_FIT_DECREASING);
+    }
+}
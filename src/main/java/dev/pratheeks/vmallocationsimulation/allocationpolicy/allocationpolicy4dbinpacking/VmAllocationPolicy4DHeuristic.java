@@ -0,0 +1,21 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
+
+import java.util.Map;
+
+/**
+ * Repacks the VMs of the source host with a {@link HeuristicBinPacking} strategy instead of the exact search,
+ * so that repacking stays fast on thousands of hosts.
+ */
+public abstract class VmAllocationPolicy4DHeuristic extends VmAllocationPolicy4DPackingAbstract {
+    private final HeuristicBinPacking.Strategy strategy;
+
+    protected VmAllocationPolicy4DHeuristic(HeuristicBinPacking.Strategy strategy) {
+        super();
+        this.strategy = strategy;
+    }
+
+    @Override
+    protected Map<Long, Long> computeAllocation(PackedCapacityModel model) {
+        return computeHeuristicAllocation(model, strategy);
+    }
+}
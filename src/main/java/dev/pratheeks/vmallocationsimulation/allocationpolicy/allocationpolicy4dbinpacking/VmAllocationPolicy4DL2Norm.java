@@ -0,0 +1,10 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
+
+/**
+ * Repacks with {@link HeuristicBinPacking.Strategy#L2_NORM}
+ */
+public class VmAllocationPolicy4DL2Norm extends VmAllocationPolicy4DHeuristic {
+    public VmAllocationPolicy4DL2Norm() {
+        super(HeuristicBinPacking.Strategy.L2_NORM);
+    }
+}
@@ -0,0 +1,25 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
+
+import java.util.Map;
+
+/**
+ * Repacks with {@link LocalSearchBinPacking}, which returns within its time limit however many hosts there are
+ */
+public class VmAllocationPolicy4DLocalSearch extends VmAllocationPolicy4DPackingAbstract {
+    public VmAllocationPolicy4DLocalSearch() {
+        super();
+    }
+
+    /**
+     * @param timeLimitMillis wall clock budget of each repacking
+     */
+    public VmAllocationPolicy4DLocalSearch(long timeLimitMillis) {
+        super();
+        setLocalSearchTimeLimitMillis(timeLimitMillis);
+    }
+
+    @Override
+    protected Map<Long, Long> computeAllocation(PackedCapacityModel model) {
+        return computeAllocation(model, PackingEngine.LOCAL_SEARCH);
+    }
+}
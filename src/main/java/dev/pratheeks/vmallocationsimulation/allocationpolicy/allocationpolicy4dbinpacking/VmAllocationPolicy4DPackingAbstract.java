@@ -0,0 +1,245 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
+
+import dev.pratheeks.vmallocationsimulation.allocationpolicy.VmAllocationPolicyIndexedAbstract;
+import dev.pratheeks.vmallocationsimulation.metrics.Metric;
+import dev.pratheeks.vmallocationsimulation.metrics.RunMetrics;
+import dev.pratheeks.vmallocationsimulation.trace.EventTrace;
+import dev.pratheeks.vmallocationsimulation.util.LongIntHashMap;
+import org.cloudsimplus.hosts.Host;
+import org.cloudsimplus.hosts.HostSuitability;
+import org.cloudsimplus.vms.Vm;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+
+/**
+ * Base of the policies that place the VMs of a host being drained all at once: {@link #recalculatePacking(Host)}
+ * computes where every VM of the source host goes and {@link #defaultFindHostForVm(Vm)} then follows that plan.
+ * {@link #recalculatePacking(Collection, List)} plans the VMs of several hosts drained together in one go, and
+ * {@link #recalculatePacking(Collection, List, PackingEngine)} does so with another {@link PackingEngine} than the
+ * one of the policy, such as the time bounded {@link LocalSearchBinPacking} when the plan is needed quickly.
+ * Before the first recalculation, and for the VMs that arrive later, VMs are placed with a round-robin FirstFit.
+ */
+public abstract class VmAllocationPolicy4DPackingAbstract extends VmAllocationPolicyIndexedAbstract {
+    private static final long DEFAULT_LOCAL_SEARCH_TIME_LIMIT_MILLIS = 10;
+    private static final long LOCAL_SEARCH_SEED = 0;
+
+    private int initialAllocationLastHostIndex = 0;
+    /**
+     * Current optimal allocation VM_ID -> index of the host in the host list, null before the first recalculation
+     */
+    private LongIntHashMap currentOptimumAllocation = null;
+    private final LongIntHashMap hostIndexById = new LongIntHashMap();
+    /**
+     * Capacity of the hosts and the capacity used by their VMs, built on the first recalculation and then kept up
+     * to date as VMs are placed on and removed from hosts, so recalculations do not rebuild it from the host list
+     */
+    private PackedCapacityModel hostMirror = null;
+
+    private long localSearchTimeLimitMillis = DEFAULT_LOCAL_SEARCH_TIME_LIMIT_MILLIS;
+    private final Random localSearchRandom = new Random(LOCAL_SEARCH_SEED);
+
+    private EventTrace trace = EventTrace.disabled();
+    private RunMetrics metrics = new RunMetrics();
+
+    /**
+     * Sets where the computed packings are traced
+     */
+    public void setTrace(EventTrace trace) {
+        this.trace = trace;
+    }
+
+    /**
+     * Sets where the counters of the packing searches are recorded
+     */
+    public void setMetrics(RunMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Sets the wall clock budget of the packings computed by {@link PackingEngine#LOCAL_SEARCH}
+     */
+    public void setLocalSearchTimeLimitMillis(long localSearchTimeLimitMillis) {
+        if (localSearchTimeLimitMillis <= 0) {
+            throw new IllegalArgumentException("Local search time limit must be positive: " + localSearchTimeLimitMillis);
+        }
+        this.localSearchTimeLimitMillis = localSearchTimeLimitMillis;
+    }
+
+    /**
+     * Recalculate the packing of VMs on a single host
+     */
+    public void recalculatePacking(Host sourceHost) {
+        recalculatePacking(sourceHost, PackingEngine.POLICY);
+    }
+
+    /**
+     * Recalculate the packing of VMs on a single host with the given engine
+     */
+    public void recalculatePacking(Host sourceHost, PackingEngine engine) {
+        recalculatePacking(List.of(sourceHost), sourceHost.getVmList(), engine);
+    }
+
+    /**
+     * Recalculate the packing of VMs of several hosts being drained, with a single allocation
+     *
+     * @param sourceHosts   hosts being drained, no VM is planned onto them
+     * @param vmsToAllocate VMs of the source hosts to plan
+     */
+    public void recalculatePacking(Collection<Host> sourceHosts, List<Vm> vmsToAllocate) {
+        recalculatePacking(sourceHosts, vmsToAllocate, PackingEngine.POLICY);
+    }
+
+    /**
+     * Recalculate the packing of VMs of several hosts being drained, with a single allocation computed by the given
+     * engine
+     *
+     * @param sourceHosts   hosts being drained, no VM is planned onto them
+     * @param vmsToAllocate VMs of the source hosts to plan
+     */
+    public void recalculatePacking(Collection<Host> sourceHosts, List<Vm> vmsToAllocate, PackingEngine engine) {
+        if (hostMirror == null || hostMirror.getHostCount() != getHostList().size()) {
+            buildHostMirror();
+        }
+
+        // Copy the mirror, make the source and excluded hosts unusable and add the VMs to allocate
+        final var model = new PackedCapacityModel(hostMirror, vmsToAllocate.size());
+        for (Host host : sourceHosts) {
+            model.exhaustHost(hostIndexById.get(host.getId(), -1));
+        }
+        for (Host host : getExcludedHosts()) {
+            model.exhaustHost(hostIndexById.get(host.getId(), -1));
+        }
+        for (Vm vm : vmsToAllocate) {
+            model.addVm(vm.getId(), vm.getRam().getCapacity(), vm.getPesNumber(), vm.getBw().getCapacity(), 0.0
+                    // TODO: Add VM power utilization when computing the allocation
+                    // vm.getPowerModel().getPower()
+            );
+        }
+
+        final Map<Long, Long> optimumAllocation = computeAllocation(model, engine);
+
+        // Index the plan once, so that finding the host of each migrated VM is O(1)
+        currentOptimumAllocation = new LongIntHashMap(optimumAllocation.size());
+        for (Map.Entry<Long, Long> entry : optimumAllocation.entrySet()) {
+            currentOptimumAllocation.put(entry.getKey(), hostIndexById.get(entry.getValue(), -1));
+            trace.packingPlanned(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Mirrors the capacity of every host and the capacity used by its VMs, host indices follow the host list
+     */
+    private void buildHostMirror() {
+        List<Host> allSimHostList = getHostList();
+        hostMirror = new PackedCapacityModel(allSimHostList.size(), 0);
+        hostIndexById.clear();
+        for (Host host : allSimHostList) {
+            int index = hostMirror.addHost(host.getId(), host.getRam().getCapacity(), host.getPesNumber(),
+                    host.getBw().getCapacity(), host.getPowerModel().getPower(1.0));
+            hostIndexById.put(host.getId(), index);
+            for (Vm vm : host.getVmList()) {
+                addMirroredUsage(index, vm, 1);
+            }
+        }
+    }
+
+    private void addMirroredUsage(int host, Vm vm, int sign) {
+        hostMirror.addHostUsage(host, sign * vm.getRam().getCapacity(), sign * vm.getPesNumber(),
+                sign * vm.getBw().getCapacity(), 0.0);
+    }
+
+    @Override
+    public HostSuitability allocateHostForVm(Vm vm, Host host) {
+        final HostSuitability suitability = super.allocateHostForVm(vm, host);
+        if (hostMirror != null && suitability.fully()) {
+            addMirroredUsage(hostIndexById.get(host.getId(), -1), vm, 1);
+        }
+        return suitability;
+    }
+
+    @Override
+    public void deallocateHostForVm(Vm vm) {
+        final Host host = vm.getHost();
+        super.deallocateHostForVm(vm);
+        if (hostMirror != null && host != Host.NULL) {
+            int index = hostIndexById.get(host.getId(), -1);
+            if (index >= 0) {
+                addMirroredUsage(index, vm, -1);
+            }
+        }
+    }
+
+    /**
+     * Allocates the unassigned VMs of the model
+     *
+     * @param model every host of the host list in list order, with the capacity used by their VMs, and the VMs to
+     *              allocate, which no longer fit on their source hosts
+     * @return VM ID -> host ID of the newly allocated VMs, VMs left out are not migrated
+     */
+    protected abstract Map<Long, Long> computeAllocation(PackedCapacityModel model);
+
+    /**
+     * Allocates the unassigned VMs of the model with the given engine, see {@link #computeAllocation(PackedCapacityModel)}
+     */
+    protected Map<Long, Long> computeAllocation(PackedCapacityModel model, PackingEngine engine) {
+        return switch (engine) {
+            case POLICY -> computeAllocation(model);
+            case GREEDY -> computeHeuristicAllocation(model, HeuristicBinPacking.Strategy.DOT_PRODUCT);
+            case LOCAL_SEARCH -> computeLocalSearchAllocation(model, localSearchTimeLimitMillis);
+        };
+    }
+
+    protected Map<Long, Long> computeHeuristicAllocation(PackedCapacityModel model,
+                                                         HeuristicBinPacking.Strategy strategy) {
+        final var heuristicBinPacking = new HeuristicBinPacking(model, strategy);
+        final Map<Long, Long> allocation = heuristicBinPacking.findAllocation();
+        trace.packingComputed(allocation.size() + heuristicBinPacking.getUnplacedVms(),
+                heuristicBinPacking.getAdditionalHostsUsed(), heuristicBinPacking.getUnplacedVms(), false, 0);
+        return allocation;
+    }
+
+    protected Map<Long, Long> computeLocalSearchAllocation(PackedCapacityModel model, long timeLimitMillis) {
+        final var localSearch = new LocalSearchBinPacking(model, timeLimitMillis, 0, localSearchRandom);
+        final Map<Long, Long> allocation = localSearch.findAllocation();
+        trace.packingComputed(allocation.size() + localSearch.getUnplacedVms(), localSearch.getAdditionalHostsUsed(),
+                localSearch.getUnplacedVms(), localSearch.isOptimal(), localSearch.getIterations());
+        metrics.record(Metric.PACKING_GAP, localSearch.getGap());
+        return allocation;
+    }
+
+    protected EventTrace getTrace() {
+        return trace;
+    }
+
+    protected RunMetrics getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    protected Optional<Host> defaultFindHostForVm(Vm vm) {
+        // Optimum calculation not done yet or a VM arriving rather than migrating, allocate it using FirstFit
+        if (currentOptimumAllocation == null || vm.getHost() == Host.NULL) {
+            return initialAllocationFindHostForVm(vm);
+        }
+
+        // Optimum calculation done, return the host from the current allocation
+        int allocatedHostIndex = currentOptimumAllocation.get(vm.getId(), -1);
+        if (allocatedHostIndex != -1) {
+            return Optional.of(getHostList().get(allocatedHostIndex));
+        }
+        // VM not found in the current allocation
+        return Optional.empty();
+    }
+
+
+    private Optional<Host> initialAllocationFindHostForVm(final Vm vm) {
+        // First suitable Host from the last one used, wrapping around the host list
+        final Optional<Host> host = getHostCapacityIndex().findFirstFit(vm, initialAllocationLastHostIndex);
+        host.ifPresent(found -> initialAllocationLastHostIndex = getHostCapacityIndex().indexOf(found));
+        return host;
+    }
+}
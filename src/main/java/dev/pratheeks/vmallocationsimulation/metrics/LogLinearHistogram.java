@@ -0,0 +1,153 @@
+package dev.pratheeks.vmallocationsimulation.metrics;
+
+import java.util.Arrays;
+
+/**
+ * Histogram of non-negative long values, such as latencies in nanoseconds or node counts, with a bounded relative
+ * error and a fixed footprint, in the manner of HdrHistogram.
+ * <p>
+ * Values below 2^SUB_BUCKET_BITS have a bucket of their own. Every larger power of two range is split into
+ * 2^(SUB_BUCKET_BITS-1) buckets of equal width, so a value is reported at most 1/32 above its real value.
+ * Recording is a few shifts and an array increment. Histograms merge by adding their buckets, so the
+ * percentiles of a whole sweep are exact over the histograms of its runs.
+ */
+public class LogLinearHistogram {
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+    private static final int BUCKET_COUNT = SUB_BUCKET_COUNT + (Long.SIZE - 1 - SUB_BUCKET_BITS) * HALF_SUB_BUCKET_COUNT;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    public void record(long value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Negative value: " + value);
+        }
+        counts[bucketOf(value)]++;
+        count++;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * Adds the values recorded by another histogram to this one
+     */
+    public void merge(LogLinearHistogram other) {
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            counts[bucket] += other.counts[bucket];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * @return the smallest recorded value, 0 if there is none
+     */
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * @return the largest recorded value, 0 if there is none
+     */
+    public long getMax() {
+        return count == 0 ? 0 : max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the highest value of the bucket holding the value at the percentile, at most the largest recorded
+     * value, 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(bucket), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return the non-empty buckets as space separated bucket:count pairs, see {@link #decode(String, long, long, long, long)}
+     */
+    public String encodeBuckets() {
+        StringBuilder encoded = new StringBuilder();
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            if (counts[bucket] > 0) {
+                if (!encoded.isEmpty()) {
+                    encoded.append(' ');
+                }
+                encoded.append(bucket).append(':').append(counts[bucket]);
+            }
+        }
+        return encoded.toString();
+    }
+
+    /**
+     * Rebuilds a histogram from its {@link #encodeBuckets() buckets} and totals
+     */
+    public static LogLinearHistogram decode(String buckets, long count, long sum, long min, long max) {
+        LogLinearHistogram histogram = new LogLinearHistogram();
+        if (!buckets.isBlank()) {
+            for (String pair : buckets.trim().split(" ")) {
+                int separator = pair.indexOf(':');
+                histogram.counts[Integer.parseInt(pair.substring(0, separator))] +=
+                        Long.parseLong(pair.substring(separator + 1));
+            }
+        }
+        if (Arrays.stream(histogram.counts).sum() != count) {
+            throw new IllegalArgumentException("Bucket counts do not add up to " + count + ": " + buckets);
+        }
+        histogram.count = count;
+        histogram.sum = sum;
+        if (count > 0) {
+            histogram.min = min;
+            histogram.max = max;
+        }
+        return histogram;
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return SUB_BUCKET_COUNT + (shift - 1) * HALF_SUB_BUCKET_COUNT
+                + (int) (value >>> shift) - HALF_SUB_BUCKET_COUNT;
+    }
+
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        int shift = (bucket - SUB_BUCKET_COUNT) / HALF_SUB_BUCKET_COUNT + 1;
+        long top = (bucket - SUB_BUCKET_COUNT) % HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT;
+        return ((top + 1) << shift) - 1;
+    }
+}
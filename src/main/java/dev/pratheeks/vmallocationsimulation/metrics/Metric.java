@@ -0,0 +1,76 @@
+package dev.pratheeks.vmallocationsimulation.metrics;
+
+/**
+ * Measurements recorded per simulation run, each into a histogram of its own
+ */
+public enum Metric {
+    /**
+     * Wall clock time of finding the host of a VM to migrate
+     */
+    FIND_HOST_FOR_VM("findHostForVmMillis", 1e6),
+    /**
+     * Wall clock time of repacking the VMs of a drained host, for the policies that plan the drain at once
+     */
+    RECALCULATE_PACKING("recalculatePackingMillis", 1e6),
+    /**
+     * Wall clock time from the start of an exact packing search until it knew a complete allocation
+     */
+    TIME_TO_FIRST_SOLUTION("timeToFirstSolutionMillis", 1e6),
+    /**
+     * Nodes explored by an exact packing search
+     */
+    SEARCH_NODES("searchNodes", 1),
+    /**
+     * Subtrees of an exact packing search cut off by the lower bound
+     */
+    SEARCH_PRUNES("searchPrunes", 1),
+    /**
+     * Times an exact packing search found a better allocation than the best one so far
+     */
+    SEARCH_INCUMBENT_UPDATES("searchIncumbentUpdates", 1),
+    /**
+     * Subtrees of an exact packing search cut off because another branch already explored the same state
+     */
+    SEARCH_TRANSPOSITION_HITS("searchTranspositionHits", 1),
+    /**
+     * 1 for an exact packing search answered by the solution cache, 0 for one that missed it, so the mean is the hit
+     * rate
+     */
+    SOLUTION_CACHE_HIT("solutionCacheHit", 1),
+    /**
+     * Additional hosts a local search packing used above the lower bound of the VMs it packed, 0 when it is optimal
+     */
+    PACKING_GAP("packingGapHosts", 1),
+    /**
+     * Simulation time from the start of a maintenance drain until the last of its hosts is empty, recorded in
+     * milliseconds
+     */
+    EVACUATION_TIME("evacuationSeconds", 1000),
+    /**
+     * Wall clock time from the creation of a simulation until its VMs are placed and its first drain can start, to
+     * compare runs forked from a snapshot with runs from scratch
+     */
+    SETUP("setupMillis", 1e6);
+
+    private final String columnName;
+    /**
+     * Recorded units per reported unit, 1e6 for wall clock times recorded in nanoseconds and reported in milliseconds
+     */
+    private final double unit;
+
+    Metric(String columnName, double unit) {
+        this.columnName = columnName;
+        this.unit = unit;
+    }
+
+    public String getColumnName() {
+        return columnName;
+    }
+
+    /**
+     * Converts a recorded value to the unit written in the summaries, named by the column
+     */
+    double toReported(double value) {
+        return value / unit;
+    }
+}
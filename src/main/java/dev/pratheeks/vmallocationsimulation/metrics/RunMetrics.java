@@ -0,0 +1,135 @@
+package dev.pratheeks.vmallocationsimulation.metrics;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Histograms of the {@link Metric metrics} of one simulation run, recorded by the simulation thread only.
+ * <p>
+ * The summary file holds one row per metric: the count, the mean and percentiles in reported units (milliseconds
+ * for times), then the totals and buckets in recorded units, from which {@link #read(Path)} rebuilds the exact
+ * histograms to merge them into a sweep summary.
+ */
+public class RunMetrics {
+    static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    static final String STATISTICS_HEADER = "count,mean,min,p50,p90,p99,p999,max";
+    private static final String HEADER = "metric," + STATISTICS_HEADER + ",recordedSum,recordedMin,recordedMax,buckets";
+
+    private final LogLinearHistogram[] histograms = new LogLinearHistogram[Metric.values().length];
+
+    public RunMetrics() {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LogLinearHistogram();
+        }
+    }
+
+    public void record(Metric metric, long value) {
+        histograms[metric.ordinal()].record(value);
+    }
+
+    /**
+     * Records the counters of one exact packing search
+     *
+     * @param timeToFirstSolutionNanos negative if the search found no allocation
+     */
+    public void recordSearch(long nodes, long prunes, long transpositionHits, long incumbentUpdates,
+                             long timeToFirstSolutionNanos) {
+        record(Metric.SEARCH_NODES, nodes);
+        record(Metric.SEARCH_PRUNES, prunes);
+        record(Metric.SEARCH_TRANSPOSITION_HITS, transpositionHits);
+        record(Metric.SEARCH_INCUMBENT_UPDATES, incumbentUpdates);
+        if (timeToFirstSolutionNanos >= 0) {
+            record(Metric.TIME_TO_FIRST_SOLUTION, timeToFirstSolutionNanos);
+        }
+    }
+
+    public LogLinearHistogram get(Metric metric) {
+        return histograms[metric.ordinal()];
+    }
+
+    /**
+     * Adds the values recorded by another run to this one
+     */
+    public void merge(RunMetrics other) {
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i].merge(other.histograms[i]);
+        }
+    }
+
+    /**
+     * Writes the summary file through a temporary file, so an interrupted write never leaves a partial summary
+     */
+    public void write(Path file) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.US_ASCII)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Metric metric : Metric.values()) {
+                LogLinearHistogram histogram = get(metric);
+                writer.write(metric.getColumnName() + "," + statistics(metric, histogram) + ","
+                        + histogram.getSum() + "," + histogram.getMin() + "," + histogram.getMax() + ","
+                        + histogram.encodeBuckets());
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a summary file written by {@link #write(Path)}
+     */
+    public static RunMetrics read(Path file) throws IOException {
+        RunMetrics metrics = new RunMetrics();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.US_ASCII)) {
+            String header = reader.readLine();
+            if (!HEADER.equals(header)) {
+                throw new IOException(file + " has different columns than the metrics now written: " + header);
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.split(",", -1);
+                Metric metric = metricByColumnName(columns[0]);
+                if (metric == null || columns.length != 13) {
+                    throw new IOException(file + " has an invalid metric row: " + line);
+                }
+                try {
+                    metrics.histograms[metric.ordinal()] = LogLinearHistogram.decode(columns[12],
+                            Long.parseLong(columns[1]), Long.parseLong(columns[9]), Long.parseLong(columns[10]),
+                            Long.parseLong(columns[11]));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(file + " has an invalid metric row: " + line, e);
+                }
+            }
+        }
+        return metrics;
+    }
+
+    private static Metric metricByColumnName(String columnName) {
+        for (Metric metric : Metric.values()) {
+            if (metric.getColumnName().equals(columnName)) {
+                return metric;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the {@link #STATISTICS_HEADER} columns of a histogram in the reported unit of the metric
+     */
+    static String statistics(Metric metric, LogLinearHistogram histogram) {
+        StringBuilder row = new StringBuilder();
+        row.append(histogram.getCount())
+                .append(',').append(metric.toReported(histogram.getMean()))
+                .append(',').append(metric.toReported(histogram.getMin()));
+        for (double percentile : PERCENTILES) {
+            row.append(',').append(metric.toReported(histogram.getValueAtPercentile(percentile)));
+        }
+        return row.append(',').append(metric.toReported(histogram.getMax())).toString();
+    }
+}
@@ -0,0 +1,67 @@
+package dev.pratheeks.vmallocationsimulation.metrics;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Merges the {@link RunMetrics} of the runs of a sweep per allocation policy and host count, and over all the
+ * host counts of a policy, into one table of counts, means and percentiles. Runs may be added concurrently.
+ */
+public class SweepMetricsSummary {
+    private static final String HEADER = "allocationPolicy,hostCount,runs,metric," + RunMetrics.STATISTICS_HEADER;
+    private static final String ALL_HOST_COUNTS = "all";
+
+    /**
+     * allocation policy -> host count, or {@link #ALL_HOST_COUNTS} -> merged runs
+     */
+    private final Map<String, Map<String, Group>> groups = new TreeMap<>();
+
+    public synchronized void add(String allocationAlgoName, int hostCount, RunMetrics metrics) {
+        Map<String, Group> policyGroups = groups.computeIfAbsent(allocationAlgoName, name -> new TreeMap<>(
+                (a, b) -> a.equals(b) ? 0 : a.equals(ALL_HOST_COUNTS) ? 1 : b.equals(ALL_HOST_COUNTS) ? -1
+                        : Integer.compare(Integer.parseInt(a), Integer.parseInt(b))));
+        policyGroups.computeIfAbsent(Integer.toString(hostCount), key -> new Group()).add(metrics);
+        policyGroups.computeIfAbsent(ALL_HOST_COUNTS, key -> new Group()).add(metrics);
+    }
+
+    /**
+     * Writes the table through a temporary file, so an interrupted write never leaves a partial summary
+     */
+    public synchronized void write(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.US_ASCII)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Map<String, Group>> policy : groups.entrySet()) {
+                for (Map.Entry<String, Group> hostCount : policy.getValue().entrySet()) {
+                    Group group = hostCount.getValue();
+                    for (Metric metric : Metric.values()) {
+                        writer.write(policy.getKey() + "," + hostCount.getKey() + "," + group.runs + ","
+                                + metric.getColumnName() + "," + RunMetrics.statistics(metric, group.metrics.get(metric)));
+                        writer.newLine();
+                    }
+                }
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Group {
+        private final RunMetrics metrics = new RunMetrics();
+        private int runs;
+
+        private void add(RunMetrics run) {
+            metrics.merge(run);
+            runs++;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package dev.pratheeks.vmallocationsimulation.results;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.*;
+
+/**
+ * Writes byte buffers to file channels on a single background thread, in submission order.
+ * <p>
+ * Buffers come from a bounded pool and go back to it once written, so a steady stream of rows does not allocate
+ * and producers block when the writer falls behind.
+ */
+class AsyncChannelWriter implements AutoCloseable {
+    static final int BUFFER_SIZE = 64 * 1024;
+    private static final int POOLED_BUFFERS = 32;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "result-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final BlockingQueue<ByteBuffer> pool = new ArrayBlockingQueue<>(POOLED_BUFFERS);
+
+    AsyncChannelWriter() {
+        for (int i = 0; i < POOLED_BUFFERS; i++) {
+            pool.add(ByteBuffer.allocateDirect(BUFFER_SIZE));
+        }
+    }
+
+    ByteBuffer takeBuffer() throws IOException {
+        try {
+            return pool.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a result buffer");
+        }
+    }
+
+    /**
+     * Writes the filled buffer to the channel in the background, then returns it to the pool if it is pooled
+     */
+    Future<?> write(FileChannel channel, ByteBuffer buffer) {
+        buffer.flip();
+        return executor.submit(() -> {
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                if (buffer.isDirect() && buffer.capacity() == BUFFER_SIZE) {
+                    buffer.clear();
+                    pool.offer(buffer);
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Runs the action on the writer thread after all the writes submitted so far
+     */
+    Future<?> submit(Callable<?> action) {
+        return executor.submit(action);
+    }
+
+    static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing results");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof UncheckedIOException unchecked ? unchecked.getCause() : e.getCause();
+            throw cause instanceof IOException io ? io : new IOException(cause);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
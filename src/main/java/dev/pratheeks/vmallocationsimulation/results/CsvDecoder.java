@@ -0,0 +1,301 @@
+package dev.pratheeks.vmallocationsimulation.results;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes the rows written by {@link CsvEncoder} in place, straight from the bytes of a buffer into the fields of
+ * the decoder, so that reading results creates no string or object per row.
+ * <p>
+ * Decimal columns give the same value as {@link Double#parseDouble(String)}: those whose digits make an integer of
+ * at most 2^53 and whose power of ten is at most 22, which covers the times the simulations write, are converted
+ * with a single rounding from that integer and power of ten, the others by {@link Double#parseDouble(String)}
+ * itself. The rows of a {@link SweepCsvResultSink} file start with the tag of their run, whose position in the
+ * buffer is kept to tell runs apart without decoding it.
+ */
+class CsvDecoder {
+    private static final int MAX_MANTISSA_DIGITS = 18;
+    /**
+     * Largest mantissa and power of ten a double holds exactly
+     */
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private ByteBuffer buffer;
+    private int position;
+    private int limit;
+
+    /**
+     * Positions of the tag of the last decoded row in the buffer, when rows are tagged: the tag spans
+     * [tagStart, tagEnd) and its allocation policy [tagStart, policyEnd)
+     */
+    int tagStart;
+    int policyEnd;
+    int tagEnd;
+    int hostCount;
+
+    long vmId;
+    double allocationTime;
+    boolean allocated;
+    long fromHost;
+    long toHost;
+    double migrationTime;
+    boolean migrationSuccess;
+    double migrationRequestTime;
+    long bytesMoved;
+
+    /**
+     * Decodes the lines of the buffer from position, which must be the start of a line, to limit
+     */
+    void reset(ByteBuffer buffer, int position, int limit) {
+        this.buffer = buffer;
+        this.position = position;
+        this.limit = limit;
+    }
+
+    int getPosition() {
+        return position;
+    }
+
+    /**
+     * Skips the header line if it is the expected one
+     *
+     * @return false if the line is a different one
+     */
+    boolean skipHeader(byte[] header) {
+        if (limit - position < header.length) {
+            return false;
+        }
+        for (int i = 0; i < header.length; i++) {
+            if (buffer.get(position + i) != header[i]) {
+                return false;
+            }
+        }
+        position += header.length;
+        return true;
+    }
+
+    /**
+     * Decodes the next row, skipping empty lines
+     *
+     * @param tagged whether rows start with the tag of their run
+     * @return false if there are no rows left
+     * @throws IllegalArgumentException if the row is malformed
+     */
+    boolean next(boolean tagged) {
+        while (position < limit && isLineEnd(buffer.get(position))) {
+            position++;
+        }
+        if (position == limit) {
+            return false;
+        }
+        int start = position;
+        try {
+            if (tagged) {
+                tagStart = position;
+                skipColumn();
+                policyEnd = position - 1;
+                hostCount = (int) parseLong();
+                parseLong();
+                tagEnd = position - 1;
+            }
+            vmId = parseLong();
+            allocationTime = parseDouble();
+            allocated = parseBoolean();
+            fromHost = parseLong();
+            toHost = parseLong();
+            migrationTime = parseDouble();
+            migrationSuccess = parseBoolean();
+            migrationRequestTime = parseDouble();
+            bytesMoved = parseLong();
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Malformed row at byte " + start + ": " + line(start), e);
+        }
+        return true;
+    }
+
+    /**
+     * @return whether the tag of the last row has the same bytes as the given range of the buffer
+     */
+    boolean sameTag(int otherStart, int otherEnd) {
+        if (otherEnd - otherStart != tagEnd - tagStart) {
+            return false;
+        }
+        for (int i = 0; i < tagEnd - tagStart; i++) {
+            if (buffer.get(tagStart + i) != buffer.get(otherStart + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the allocation policy of the tag of the last row
+     */
+    String policy() {
+        return ascii(tagStart, policyEnd);
+    }
+
+    private static boolean isLineEnd(byte b) {
+        return b == '\n' || b == '\r';
+    }
+
+    /**
+     * Moves past the separator ending the current column, which must be the last one if it ends a line
+     */
+    private void endColumn() {
+        if (position == limit) {
+            return;
+        }
+        byte b = buffer.get(position);
+        if (b == ',' || b == '\n') {
+            position++;
+        } else if (b == '\r') {
+            position++;
+            if (position < limit && buffer.get(position) == '\n') {
+                position++;
+            }
+        } else {
+            throw new IllegalArgumentException("Unexpected '" + (char) b + "'");
+        }
+    }
+
+    private void skipColumn() {
+        skipToColumnEnd();
+        endColumn();
+    }
+
+    private void skipToColumnEnd() {
+        while (position < limit && buffer.get(position) != ',' && !isLineEnd(buffer.get(position))) {
+            position++;
+        }
+    }
+
+    private long parseLong() {
+        boolean negative = position < limit && buffer.get(position) == '-';
+        if (negative) {
+            position++;
+        }
+        int start = position;
+        long value = 0;
+        while (position < limit) {
+            int digit = buffer.get(position) - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            value = value * 10 + digit;
+            position++;
+        }
+        if (position == start) {
+            throw new IllegalArgumentException("Expected a number");
+        }
+        endColumn();
+        return negative ? -value : value;
+    }
+
+    private double parseDouble() {
+        int start = position;
+        boolean negative = position < limit && buffer.get(position) == '-';
+        if (negative) {
+            position++;
+        }
+        long mantissa = 0;
+        int significantDigits = 0;
+        int exponent = 0;
+        boolean digits = false;
+        boolean fraction = false;
+        boolean truncated = false;
+        while (position < limit) {
+            byte b = buffer.get(position);
+            if (b == '.' && !fraction) {
+                fraction = true;
+            } else if (b >= '0' && b <= '9') {
+                digits = true;
+                if (significantDigits < MAX_MANTISSA_DIGITS) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    if (mantissa != 0) {
+                        significantDigits++;
+                    }
+                    if (fraction) {
+                        exponent--;
+                    }
+                } else {
+                    truncated |= b != '0';
+                    if (!fraction) {
+                        exponent++;
+                    }
+                }
+            } else {
+                break;
+            }
+            position++;
+        }
+        if (!digits) {
+            // NaN or Infinity
+            skipToColumnEnd();
+            double value = Double.parseDouble(ascii(start, position));
+            endColumn();
+            return value;
+        }
+        if (position < limit && (buffer.get(position) == 'E' || buffer.get(position) == 'e')) {
+            position++;
+            boolean negativeExponent = position < limit && buffer.get(position) == '-';
+            if (negativeExponent) {
+                position++;
+            }
+            int exponentStart = position;
+            int written = 0;
+            while (position < limit && buffer.get(position) >= '0' && buffer.get(position) <= '9') {
+                written = Math.min(written * 10 + (buffer.get(position) - '0'), 10_000);
+                position++;
+            }
+            if (position == exponentStart) {
+                throw new IllegalArgumentException("Expected an exponent");
+            }
+            exponent += negativeExponent ? -written : written;
+        }
+        int end = position;
+        endColumn();
+        if (truncated || mantissa > MAX_EXACT_MANTISSA || Math.abs(exponent) >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(ascii(start, end));
+        }
+        // Both operands are exact, so the result is the correctly rounded value of the decimal
+        double value = exponent >= 0 ? mantissa * POWERS_OF_TEN[exponent] : mantissa / POWERS_OF_TEN[-exponent];
+        return negative ? -value : value;
+    }
+
+    private boolean parseBoolean() {
+        int start = position;
+        skipToColumnEnd();
+        int length = position - start;
+        endColumn();
+        if (length == 4 && buffer.get(start) == 't') {
+            return true;
+        }
+        if (length == 5 && buffer.get(start) == 'f') {
+            return false;
+        }
+        throw new IllegalArgumentException("Expected true or false");
+    }
+
+    private String ascii(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    private String line(int start) {
+        int end = start;
+        while (end < limit && !isLineEnd(buffer.get(end))) {
+            end++;
+        }
+        return ascii(start, end);
+    }
+}
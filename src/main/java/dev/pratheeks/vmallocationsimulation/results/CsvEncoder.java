@@ -0,0 +1,83 @@
+package dev.pratheeks.vmallocationsimulation.results;
+
+import dev.pratheeks.vmallocationsimulation.CSVBean;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Encodes {@link CSVBean} rows as ASCII CSV directly into a byte buffer, without intermediate strings for the
+ * integral and boolean columns
+ */
+class CsvEncoder {
+    static final String HEADER = "vmId,allocationTime,allocated,fromHost,toHost,migrationTime,migrationSuccess,"
+            + "migrationRequestTime,bytesMoved";
+    static final String TAG_HEADER = "allocationPolicy,hostCount,randomSeed";
+    /**
+     * Upper bound of the length of an encoded row, tag prefix excluded
+     */
+    static final int MAX_ROW_LENGTH = 9 * 26;
+
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+
+    private final byte[] digits = new byte[20];
+
+    static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    void encode(ByteBuffer buffer, CSVBean row) {
+        putLong(buffer, row.getVmId());
+        buffer.put((byte) ',');
+        putDouble(buffer, row.getAllocationTime());
+        buffer.put((byte) ',');
+        putBoolean(buffer, row.isAllocated());
+        buffer.put((byte) ',');
+        putLong(buffer, row.getFromHost());
+        buffer.put((byte) ',');
+        putLong(buffer, row.getToHost());
+        buffer.put((byte) ',');
+        putDouble(buffer, row.getMigrationTime());
+        buffer.put((byte) ',');
+        putBoolean(buffer, row.isMigrationSuccess());
+        buffer.put((byte) ',');
+        putDouble(buffer, row.getMigrationRequestTime());
+        buffer.put((byte) ',');
+        putLong(buffer, row.getBytesMoved());
+        buffer.put((byte) '\n');
+    }
+
+    void putLong(ByteBuffer buffer, long value) {
+        if (value == Long.MIN_VALUE) {
+            buffer.put(ascii(Long.toString(value)));
+            return;
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int start = digits.length;
+        do {
+            digits[--start] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        buffer.put(digits, start, digits.length - start);
+    }
+
+    void putDouble(ByteBuffer buffer, double value) {
+        if (value == 0) {
+            buffer.put((byte) '0').put((byte) '.').put((byte) '0');
+            return;
+        }
+        // Same representation as String.valueOf(double), which the results have always used
+        String text = Double.toString(value);
+        for (int i = 0; i < text.length(); i++) {
+            buffer.put((byte) text.charAt(i));
+        }
+    }
+
+    void putBoolean(ByteBuffer buffer, boolean value) {
+        buffer.put(value ? TRUE : FALSE);
+    }
+}
@@ -0,0 +1,137 @@
+package dev.pratheeks.vmallocationsimulation.results;
+
+import dev.pratheeks.vmallocationsimulation.CSVBean;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Writes the results of each run to its own CSV file,
+ * &lt;results dir&gt;/&lt;policy&gt;/&lt;policy&gt;_hosts_&lt;hosts&gt;_&lt;seed&gt;.csv.
+ * <p>
+ * Rows are written through a temporary file that is moved into place when the run is closed, so an interrupted
+ * run never leaves a partial result behind. A file whose header is not the one now written, such as results of an
+ * earlier version with fewer columns, does not count as a finished run, so it is written again.
+ */
+public class PerRunCsvResultSink implements ResultSink {
+    private static final byte[] HEADER = CsvEncoder.ascii(CsvEncoder.HEADER + "\n");
+
+    private final AsyncChannelWriter writer = new AsyncChannelWriter();
+    private final Path resultsDir;
+
+    public PerRunCsvResultSink() {
+        this(Paths.get("results"));
+    }
+
+    public PerRunCsvResultSink(Path resultsDir) {
+        this.resultsDir = resultsDir;
+    }
+
+    /**
+     * @return the CSV file the results of a simulation run are written to
+     */
+    public Path resultFile(String allocationAlgoName, int hostCount, long randomSeed) {
+        return resultsDir.resolve(allocationAlgoName)
+                .resolve(allocationAlgoName + "_hosts_" + hostCount + "_" + randomSeed + ".csv");
+    }
+
+    @Override
+    public RunWriter openRun(String allocationAlgoName, int hostCount, long randomSeed) throws IOException {
+        Path csvFile = resultFile(allocationAlgoName, hostCount, randomSeed);
+        Files.createDirectories(csvFile.getParent());
+        Path tempFile = csvFile.resolveSibling(csvFile.getFileName() + ".tmp");
+        FileChannel channel = FileChannel.open(tempFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new CsvRunWriter(channel, tempFile, csvFile);
+    }
+
+    @Override
+    public boolean hasRun(String allocationAlgoName, int hostCount, long randomSeed) {
+        Path csvFile = resultFile(allocationAlgoName, hostCount, randomSeed);
+        if (!Files.exists(csvFile)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(csvFile, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER.length);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Until the header is read
+            }
+            return !header.hasRemaining() && Arrays.equals(header.array(), HEADER);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        writer.close();
+    }
+
+    private class CsvRunWriter implements RunWriter {
+        private final CsvEncoder encoder = new CsvEncoder();
+        private final FileChannel channel;
+        private final Path tempFile;
+        private final Path csvFile;
+        private ByteBuffer buffer;
+        private final List<Future<?>> writes = new ArrayList<>();
+
+        private CsvRunWriter(FileChannel channel, Path tempFile, Path csvFile) throws IOException {
+            this.channel = channel;
+            this.tempFile = tempFile;
+            this.csvFile = csvFile;
+            this.buffer = writer.takeBuffer();
+            buffer.put(HEADER);
+        }
+
+        @Override
+        public void write(CSVBean row) throws IOException {
+            if (buffer.remaining() < CsvEncoder.MAX_ROW_LENGTH) {
+                writes.add(writer.write(channel, buffer));
+                buffer = writer.takeBuffer();
+            }
+            encoder.encode(buffer, row);
+        }
+
+        @Override
+        public void close() throws IOException {
+            writes.add(writer.write(channel, buffer));
+            buffer = null;
+            try {
+                for (Future<?> write : writes) {
+                    AsyncChannelWriter.await(write);
+                }
+            } catch (IOException e) {
+                channel.close();
+                Files.deleteIfExists(tempFile);
+                throw e;
+            }
+            AsyncChannelWriter.await(writer.submit(() -> {
+                channel.close();
+                Files.move(tempFile, csvFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return null;
+            }));
+        }
+
+        @Override
+        public void abort() throws IOException {
+            buffer.clear();
+            writes.add(writer.write(channel, buffer)); // Returns the buffer to the pool
+            buffer = null;
+            AsyncChannelWriter.await(writer.submit(() -> {
+                channel.close();
+                Files.deleteIfExists(tempFile);
+                return null;
+            }));
+        }
+    }
+}
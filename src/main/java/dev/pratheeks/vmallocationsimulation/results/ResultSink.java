@@ -0,0 +1,30 @@
+package dev.pratheeks.vmallocationsimulation.results;
+
+import dev.pratheeks.vmallocationsimulation.CSVBean;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Destination of the result rows of simulation runs
+ */
+public interface ResultSink extends Closeable {
+    /**
+     * Starts writing the results of a simulation run. The rows are complete once the returned writer is closed.
+     */
+    RunWriter openRun(String allocationAlgoName, int hostCount, long randomSeed) throws IOException;
+
+    /**
+     * @return true if the results of the run have already been completely written, by this or an earlier sink
+     */
+    boolean hasRun(String allocationAlgoName, int hostCount, long randomSeed);
+
+    interface RunWriter extends Closeable {
+        void write(CSVBean row) throws IOException;
+
+        /**
+         * Discards the rows of a run that could not be completed
+         */
+        void abort() throws IOException;
+    }
+}
@@ -0,0 +1,436 @@
+package dev.pratheeks.vmallocationsimulation.results;
+
+import dev.pratheeks.vmallocationsimulation.metrics.LogLinearHistogram;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Summarizes the results of a sweep per allocation policy and host count, and over all the host counts of a policy,
+ * into one table: runs, rows, share of VMs left unallocated, share of the migrations that succeeded, allocation
+ * time and migration time.
+ * <p>
+ * Reads the per run files of a results directory, as written by {@link PerRunCsvResultSink}, or a single file of a
+ * {@link SweepCsvResultSink}. Files are read in parallel, whole or, for a sweep file, in ranges of lines, and
+ * decoded in place by {@link CsvDecoder}. Each thread adds the rows to counters and {@link LogLinearHistogram}s of
+ * its own, merged once every file is read, so no row is kept and the memory used does not grow with the sweep.
+ * Small files are read into a buffer reused by the thread, larger ones mapped, as a mapping is only released by
+ * the garbage collector.
+ * <p>
+ * Usage: {@code ResultsAggregator [--threads=N] <results dir | sweep csv> [summary csv]}, the summary written to
+ * summary.csv in the results directory or next to the sweep file by default
+ */
+public class ResultsAggregator {
+    private static final String HEADER = "allocationPolicy,hostCount,runs,rows,unallocatedRate,migrationSuccessRate,"
+            + "allocationTimeMeanMs,allocationTimeP50Ms,allocationTimeP90Ms,allocationTimeP99Ms,allocationTimeMaxMs,"
+            + "migrationTimeMeanS,migrationTimeP50S,migrationTimeP99S,migrationTimeMaxS,bytesMoved";
+    private static final String ALL_HOST_COUNTS = "all";
+    private static final byte[] RUN_HEADER = CsvEncoder.ascii(CsvEncoder.HEADER + "\n");
+    private static final byte[] SWEEP_HEADER = CsvEncoder.ascii(CsvEncoder.TAG_HEADER + "," + CsvEncoder.HEADER + "\n");
+    /**
+     * &lt;policy&gt;_hosts_&lt;hosts&gt;_&lt;seed&gt;.csv
+     */
+    private static final Pattern RUN_FILE = Pattern.compile("(.+)_hosts_(\\d+)_(-?\\d+)\\.csv");
+    /**
+     * Files up to this size are read rather than mapped
+     */
+    private static final int READ_BUFFER_BYTES = 1 << 20;
+    /**
+     * Bytes of a sweep file read at once by a thread
+     */
+    private static final long SWEEP_RANGE_BYTES = 64L << 20;
+    /**
+     * Bytes before a range of a sweep file searched for the row before it, longer than any row
+     */
+    private static final int PREVIOUS_ROW_BYTES = 4096;
+
+    private final int parallelism;
+    private final Map<Key, Group> groups = new HashMap<>();
+
+    public ResultsAggregator(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> paths = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--threads=")) {
+                threads = Integer.parseInt(arg.substring("--threads=".length()));
+            } else {
+                paths.add(arg);
+            }
+        }
+        if (paths.isEmpty() || paths.size() > 2) {
+            System.err.println("Usage: ResultsAggregator [--threads=N] <results dir | sweep csv> [summary csv]");
+            System.exit(2);
+        }
+        Path input = Paths.get(paths.get(0));
+        Path summaryFile = paths.size() == 2 ? Paths.get(paths.get(1))
+                : Files.isDirectory(input) ? input.resolve("summary.csv") : input.resolveSibling("summary.csv");
+
+        long start = System.nanoTime();
+        ResultsAggregator aggregator = new ResultsAggregator(threads);
+        aggregator.add(input);
+        aggregator.write(summaryFile);
+        System.out.printf("Summarized %d runs, %d rows in %.1f s to %s%n", aggregator.getRuns(), aggregator.getRows(),
+                (System.nanoTime() - start) / 1e9, summaryFile);
+    }
+
+    /**
+     * Adds the results of a results directory or a sweep file
+     */
+    public void add(Path input) throws IOException, InterruptedException {
+        try (Feed feed = Files.isDirectory(input) ? new RunFileFeed(input) : new SweepRangeFeed(input)) {
+            ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+            try {
+                List<Future<Map<Key, Group>>> readers = new ArrayList<>();
+                for (int i = 0; i < parallelism; i++) {
+                    readers.add(executor.submit(() -> read(feed)));
+                }
+                for (Future<Map<Key, Group>> reader : readers) {
+                    merge(reader.get());
+                }
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException cause ? cause : new IOException(e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    public long getRuns() {
+        return groups.values().stream().mapToLong(group -> group.runs).sum();
+    }
+
+    public long getRows() {
+        return groups.values().stream().mapToLong(group -> group.rows).sum();
+    }
+
+    /**
+     * Writes the table through a temporary file, so an interrupted write never leaves a partial summary
+     */
+    public void write(Path file) throws IOException {
+        Map<String, Map<String, Group>> table = new TreeMap<>();
+        for (Map.Entry<Key, Group> entry : groups.entrySet()) {
+            Map<String, Group> policyGroups = table.computeIfAbsent(entry.getKey().policy(), name -> new TreeMap<>(
+                    (a, b) -> a.equals(b) ? 0 : a.equals(ALL_HOST_COUNTS) ? 1 : b.equals(ALL_HOST_COUNTS) ? -1
+                            : Integer.compare(Integer.parseInt(a), Integer.parseInt(b))));
+            policyGroups.computeIfAbsent(Integer.toString(entry.getKey().hostCount()), key -> new Group())
+                    .merge(entry.getValue());
+            policyGroups.computeIfAbsent(ALL_HOST_COUNTS, key -> new Group()).merge(entry.getValue());
+        }
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.US_ASCII)) {
+            writer.write(HEADER);
+            writer.newLine();
+            for (Map.Entry<String, Map<String, Group>> policy : table.entrySet()) {
+                for (Map.Entry<String, Group> hostCount : policy.getValue().entrySet()) {
+                    writer.write(policy.getKey() + "," + hostCount.getKey() + "," + hostCount.getValue().statistics());
+                    writer.newLine();
+                }
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void merge(Map<Key, Group> read) {
+        for (Map.Entry<Key, Group> entry : read.entrySet()) {
+            groups.computeIfAbsent(entry.getKey(), key -> new Group()).merge(entry.getValue());
+        }
+    }
+
+    /**
+     * Reads sources of the feed until there are none left
+     *
+     * @return the groups of the rows read
+     */
+    private static Map<Key, Group> read(Feed feed) throws IOException {
+        Map<Key, Group> read = new HashMap<>();
+        CsvDecoder decoder = new CsvDecoder();
+        ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        for (Source source = feed.next(); source != null; source = feed.next()) {
+            try (FileChannel channel = FileChannel.open(source.file(), StandardOpenOption.READ)) {
+                if (source.policy() != null) {
+                    readRunFile(channel, source, decoder, readBuffer,
+                            read.computeIfAbsent(new Key(source.policy(), source.hostCount()), key -> new Group()));
+                } else {
+                    readSweepRange(channel, source, decoder, read);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException(source.file() + ": " + e.getMessage(), e);
+            }
+        }
+        return read;
+    }
+
+    private static void readRunFile(FileChannel channel, Source source, CsvDecoder decoder, ByteBuffer readBuffer,
+                                    Group group) throws IOException {
+        long size = channel.size();
+        ByteBuffer buffer;
+        if (size <= readBuffer.capacity()) {
+            readBuffer.clear();
+            while (readBuffer.position() < size && channel.read(readBuffer) >= 0) {
+                // Until the whole file is read
+            }
+            buffer = readBuffer.flip();
+        } else if (size <= Integer.MAX_VALUE) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } else {
+            throw new IOException(source.file() + " is too large for the results of a single run");
+        }
+        decoder.reset(buffer, 0, buffer.limit());
+        if (!decoder.skipHeader(RUN_HEADER)) {
+            throw new IOException(source.file() + " has different columns than the results written now");
+        }
+        group.runs++;
+        while (decoder.next(false)) {
+            group.add(decoder);
+        }
+    }
+
+    /**
+     * Reads the rows of a range of a sweep file, counting a run when the tag changes from one row to the next. The
+     * row before the range is decoded first, so that a run spanning two ranges is only counted once.
+     */
+    private static void readSweepRange(FileChannel channel, Source source, CsvDecoder decoder,
+                                       Map<Key, Group> read) throws IOException {
+        long mapStart = Math.max(source.headerEnd(), source.start() - PREVIOUS_ROW_BYTES);
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, source.end() - mapStart);
+        int rangeStart = (int) (source.start() - mapStart);
+
+        int previousTagStart = 0;
+        int previousTagEnd = 0;
+        Group group = null;
+        if (rangeStart > 0) {
+            int previousRow = rangeStart - 1;
+            while (previousRow > 0 && buffer.get(previousRow - 1) != '\n') {
+                previousRow--;
+            }
+            decoder.reset(buffer, previousRow, rangeStart);
+            if (decoder.next(true)) {
+                previousTagStart = decoder.tagStart;
+                previousTagEnd = decoder.tagEnd;
+                group = read.computeIfAbsent(new Key(decoder.policy(), decoder.hostCount), key -> new Group());
+            }
+        }
+        decoder.reset(buffer, rangeStart, buffer.limit());
+        while (decoder.next(true)) {
+            if (group == null || !decoder.sameTag(previousTagStart, previousTagEnd)) {
+                group = read.computeIfAbsent(new Key(decoder.policy(), decoder.hostCount), key -> new Group());
+                group.runs++;
+                previousTagStart = decoder.tagStart;
+                previousTagEnd = decoder.tagEnd;
+            }
+            group.add(decoder);
+        }
+    }
+
+    private record Key(String policy, int hostCount) {
+    }
+
+    /**
+     * A file or a range of lines of a sweep file, policy and host count are null and 0 for the latter
+     */
+    private record Source(Path file, String policy, int hostCount, long headerEnd, long start, long end) {
+    }
+
+    /**
+     * Hands out the sources to read to the threads
+     */
+    private interface Feed extends Closeable {
+        /**
+         * @return the next source, null when there are none left
+         */
+        Source next() throws IOException;
+    }
+
+    /**
+     * The run files of each policy directory of a results directory, listed as they are handed out
+     */
+    private static class RunFileFeed implements Feed {
+        private final DirectoryStream<Path> policyDirs;
+        private final Iterator<Path> policyDirIterator;
+        private DirectoryStream<Path> runFiles;
+        private Iterator<Path> runFileIterator = Collections.emptyIterator();
+        private String policy;
+
+        private RunFileFeed(Path resultsDir) throws IOException {
+            policyDirs = Files.newDirectoryStream(resultsDir, Files::isDirectory);
+            policyDirIterator = policyDirs.iterator();
+        }
+
+        @Override
+        public synchronized Source next() throws IOException {
+            while (true) {
+                while (runFileIterator.hasNext()) {
+                    Path file = runFileIterator.next();
+                    Matcher matcher = RUN_FILE.matcher(file.getFileName().toString());
+                    if (matcher.matches() && matcher.group(1).equals(policy)) {
+                        return new Source(file, policy, Integer.parseInt(matcher.group(2)), 0, 0, 0);
+                    }
+                }
+                if (!policyDirIterator.hasNext()) {
+                    return null;
+                }
+                closeRunFiles();
+                Path policyDir = policyDirIterator.next();
+                policy = policyDir.getFileName().toString();
+                runFiles = Files.newDirectoryStream(policyDir, "*.csv");
+                runFileIterator = runFiles.iterator();
+            }
+        }
+
+        private void closeRunFiles() throws IOException {
+            if (runFiles != null) {
+                runFiles.close();
+                runFiles = null;
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            closeRunFiles();
+            policyDirs.close();
+        }
+    }
+
+    /**
+     * Ranges of about {@link #SWEEP_RANGE_BYTES} of a sweep file, each starting and ending at a line end
+     */
+    private static class SweepRangeFeed implements Feed {
+        private final Path file;
+        private final FileChannel channel;
+        private final long size;
+        private final long headerEnd;
+        private long next;
+
+        private SweepRangeFeed(Path file) throws IOException {
+            this.file = file;
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            size = channel.size();
+            ByteBuffer header = ByteBuffer.allocate(SWEEP_HEADER.length);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Until the header is read
+            }
+            if (header.hasRemaining() || !Arrays.equals(header.array(), SWEEP_HEADER)) {
+                channel.close();
+                throw new IOException(file + " is not a sweep file with the columns of the results written now");
+            }
+            headerEnd = SWEEP_HEADER.length;
+            next = headerEnd;
+        }
+
+        @Override
+        public synchronized Source next() throws IOException {
+            if (next >= size) {
+                return null;
+            }
+            long start = next;
+            long end = Math.min(size, start + SWEEP_RANGE_BYTES);
+            if (end < size) {
+                end = lineEndFrom(end);
+            }
+            next = end;
+            return new Source(file, null, 0, headerEnd, start, end);
+        }
+
+        /**
+         * @return the position after the first line end at or after a position, or the file size
+         */
+        private long lineEndFrom(long position) throws IOException {
+            ByteBuffer bytes = ByteBuffer.allocate(PREVIOUS_ROW_BYTES);
+            while (position < size) {
+                bytes.clear();
+                int read = channel.read(bytes, position);
+                for (int i = 0; i < read; i++) {
+                    if (bytes.get(i) == '\n') {
+                        return position + i + 1;
+                    }
+                }
+                position += Math.max(read, 0);
+            }
+            return size;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Counters and histograms of the rows of one allocation policy and host count
+     */
+    private static class Group {
+        private long runs;
+        private long rows;
+        private long unallocated;
+        private long migrationsSucceeded;
+        private long bytesMoved;
+        private final LogLinearHistogram allocationNanos = new LogLinearHistogram();
+        private final LogLinearHistogram migrationMillis = new LogLinearHistogram();
+
+        private void add(CsvDecoder row) {
+            rows++;
+            allocationNanos.record(Math.max(0, Math.round(row.allocationTime * 1e6)));
+            if (!row.allocated) {
+                unallocated++;
+            } else if (row.migrationSuccess) {
+                migrationsSucceeded++;
+                migrationMillis.record(Math.max(0, Math.round(row.migrationTime * 1000)));
+                bytesMoved += row.bytesMoved;
+            }
+        }
+
+        private void merge(Group other) {
+            runs += other.runs;
+            rows += other.rows;
+            unallocated += other.unallocated;
+            migrationsSucceeded += other.migrationsSucceeded;
+            bytesMoved += other.bytesMoved;
+            allocationNanos.merge(other.allocationNanos);
+            migrationMillis.merge(other.migrationMillis);
+        }
+
+        /**
+         * @return the columns of the table after the policy and host count
+         */
+        private String statistics() {
+            long allocated = rows - unallocated;
+            return runs + "," + rows
+                    + "," + (rows == 0 ? 0 : (double) unallocated / rows)
+                    + "," + (allocated == 0 ? 0 : (double) migrationsSucceeded / allocated)
+                    + "," + allocationNanos.getMean() / 1e6
+                    + "," + allocationNanos.getValueAtPercentile(50) / 1e6
+                    + "," + allocationNanos.getValueAtPercentile(90) / 1e6
+                    + "," + allocationNanos.getValueAtPercentile(99) / 1e6
+                    + "," + allocationNanos.getMax() / 1e6
+                    + "," + migrationMillis.getMean() / 1000
+                    + "," + migrationMillis.getValueAtPercentile(50) / 1000.0
+                    + "," + migrationMillis.getValueAtPercentile(99) / 1000.0
+                    + "," + migrationMillis.getMax() / 1000.0
+                    + "," + bytesMoved;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package dev.pratheeks.vmallocationsimulation.results;
+
+import dev.pratheeks.vmallocationsimulation.CSVBean;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+
+/**
+ * Appends the results of all the runs of a sweep to a single CSV file, each row prefixed with the
+ * allocationPolicy, hostCount and randomSeed columns of its run.
+ * <p>
+ * The rows of a run are buffered until the run is closed and then appended with one write, so runs finishing
+ * concurrently never interleave and the runs already in an existing file can be skipped when resuming.
+ */
+public class SweepCsvResultSink implements ResultSink {
+    private static final byte[] HEADER = CsvEncoder.ascii(CsvEncoder.TAG_HEADER + "," + CsvEncoder.HEADER + "\n");
+
+    private final AsyncChannelWriter writer = new AsyncChannelWriter();
+    private final FileChannel channel;
+    private final Set<String> completedRuns = ConcurrentHashMap.newKeySet();
+
+    public SweepCsvResultSink(Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        boolean exists = Files.exists(file) && Files.size(file) > 0;
+        if (exists) {
+            readCompletedRuns(file);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (!exists) {
+            AsyncChannelWriter.await(writer.write(channel, ByteBuffer.allocate(HEADER.length).put(HEADER)));
+        }
+    }
+
+    private void readCompletedRuns(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String header = reader.readLine();
+            if (!(header + "\n").equals(new String(HEADER, StandardCharsets.US_ASCII))) {
+                throw new IOException(file + " has different columns than the results now written: " + header);
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tagEnd = nthIndexOf(line, ',', 3);
+                if (tagEnd > 0) {
+                    completedRuns.add(line.substring(0, tagEnd));
+                }
+            }
+        }
+    }
+
+    private static int nthIndexOf(String text, char c, int n) {
+        int index = -1;
+        for (int i = 0; i < n; i++) {
+            index = text.indexOf(c, index + 1);
+            if (index < 0) {
+                return -1;
+            }
+        }
+        return index;
+    }
+
+    private static String runTag(String allocationAlgoName, int hostCount, long randomSeed) {
+        return allocationAlgoName + "," + hostCount + "," + randomSeed;
+    }
+
+    @Override
+    public RunWriter openRun(String allocationAlgoName, int hostCount, long randomSeed) {
+        return new TaggedRunWriter(runTag(allocationAlgoName, hostCount, randomSeed));
+    }
+
+    @Override
+    public boolean hasRun(String allocationAlgoName, int hostCount, long randomSeed) {
+        return completedRuns.contains(runTag(allocationAlgoName, hostCount, randomSeed));
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+        channel.close();
+    }
+
+    private class TaggedRunWriter implements RunWriter {
+        private final CsvEncoder encoder = new CsvEncoder();
+        private final String tag;
+        private final byte[] prefix;
+        private ByteBuffer buffer = ByteBuffer.allocate(AsyncChannelWriter.BUFFER_SIZE);
+
+        private TaggedRunWriter(String tag) {
+            this.tag = tag;
+            this.prefix = CsvEncoder.ascii(tag + ",");
+        }
+
+        @Override
+        public void write(CSVBean row) {
+            if (buffer.remaining() < prefix.length + CsvEncoder.MAX_ROW_LENGTH) {
+                ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+                buffer.flip();
+                buffer = larger.put(buffer);
+            }
+            buffer.put(prefix);
+            encoder.encode(buffer, row);
+        }
+
+        @Override
+        public void close() throws IOException {
+            Future<?> write = writer.write(channel, buffer);
+            buffer = null;
+            AsyncChannelWriter.await(write);
+            completedRuns.add(tag);
+        }
+
+        @Override
+        public void abort() {
+            buffer = null;
+        }
+    }
+}
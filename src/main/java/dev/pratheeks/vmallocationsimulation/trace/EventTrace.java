@@ -0,0 +1,287 @@
+package dev.pratheeks.vmallocationsimulation.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Low-overhead trace of the typed events of one simulation run, written as JSON lines for later inspection.
+ * <p>
+ * Recording an event copies its numeric fields into a preallocated ring buffer, a background thread formats and
+ * writes them. The buffer has a single producer, the simulation thread; when it is full the producer waits for the
+ * writer, so no event is lost.
+ * <p>
+ * The level is read once from the {@code vmsim.trace} system property (off, info or debug, default info) into
+ * static final flags, so the JIT removes the calls below the level. A disabled trace, the one used when no trace
+ * file is wanted, records nothing either.
+ */
+public class EventTrace implements Closeable {
+    public enum Level {OFF, INFO, DEBUG}
+
+    public static final Level LEVEL = Level.valueOf(
+            System.getProperty("vmsim.trace", "info").toUpperCase(Locale.ROOT));
+    private static final boolean INFO = LEVEL.compareTo(Level.INFO) >= 0;
+    private static final boolean DEBUG = LEVEL.compareTo(Level.DEBUG) >= 0;
+
+    private static final int CAPACITY = 1 << 14; // Events, a power of two
+    private static final long WRITER_IDLE_NANOS = 1_000_000;
+    private static final long PRODUCER_WAIT_NANOS = 10_000;
+
+    private static final EventTrace DISABLED = new EventTrace();
+
+    private final boolean enabled;
+    private final EventType[] types;
+    private final double[] times;
+    private final long[] fields;
+    /**
+     * Number of events recorded and written so far, the ring buffer holds the events in between
+     */
+    private final AtomicLong recorded = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+
+    private final Writer writer;
+    private final Thread writerThread;
+    private volatile boolean closed;
+    private volatile IOException failure;
+    private DoubleSupplier clock = () -> 0;
+
+    private EventTrace() {
+        enabled = false;
+        types = null;
+        times = null;
+        fields = null;
+        writer = null;
+        writerThread = null;
+    }
+
+    private EventTrace(Path file) throws IOException {
+        enabled = true;
+        types = new EventType[CAPACITY];
+        times = new double[CAPACITY];
+        fields = new long[CAPACITY * EventType.MAX_FIELDS];
+        writer = Files.newBufferedWriter(file, StandardCharsets.US_ASCII);
+        writerThread = new Thread(this::writeEvents, "trace-writer-" + file.getFileName());
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * @return a trace that records nothing
+     */
+    public static EventTrace disabled() {
+        return DISABLED;
+    }
+
+    /**
+     * @return a trace writing to the file, or a disabled one if the level is off
+     */
+    public static EventTrace open(Path file) throws IOException {
+        return INFO ? new EventTrace(file) : DISABLED;
+    }
+
+    public boolean isInfoEnabled() {
+        return INFO && enabled;
+    }
+
+    public boolean isDebugEnabled() {
+        return DEBUG && enabled;
+    }
+
+    /**
+     * Sets the source of the simulation time stamped on the events
+     */
+    public void setClock(DoubleSupplier clock) {
+        if (enabled) {
+            this.clock = clock; // The disabled trace is shared
+        }
+    }
+
+    public void simulationStart(int hosts, long seed) {
+        if (isInfoEnabled()) {
+            record(EventType.SIMULATION_START, hosts, seed, 0, 0, 0);
+        }
+    }
+
+    public void initialAllocation(long vm, long host, long pes, long ram, long bw) {
+        if (isDebugEnabled()) {
+            record(EventType.INITIAL_ALLOCATION, vm, host, pes, ram, bw);
+        }
+    }
+
+    public void drainScheduled(long host, int vms) {
+        if (isInfoEnabled()) {
+            record(EventType.DRAIN_SCHEDULED, host, vms, 0, 0, 0);
+        }
+    }
+
+    public void noVmsToMigrate() {
+        if (isInfoEnabled()) {
+            record(EventType.NO_VMS_TO_MIGRATE, 0, 0, 0, 0, 0);
+        }
+    }
+
+    /**
+     * @param engine          ordinal of the engine chosen by an adaptive packing policy
+     * @param predictedMicros predicted time of an exact search, -1 if the policy could not predict it yet
+     */
+    public void packingEngineSelected(int engine, int vms, int hosts, long predictedMicros, long elapsedMicros) {
+        if (isInfoEnabled()) {
+            record(EventType.PACKING_ENGINE_SELECTED, engine, vms, hosts, predictedMicros, elapsedMicros);
+        }
+    }
+
+    public void packingComputed(int vms, int additionalHosts, int unplacedVms, boolean optimal, long nodes) {
+        if (isInfoEnabled()) {
+            record(EventType.PACKING_COMPUTED, vms, additionalHosts, unplacedVms, optimal ? 1 : 0, nodes);
+        }
+    }
+
+    public void packingPlanned(long vm, long host) {
+        if (isDebugEnabled()) {
+            record(EventType.PACKING_PLANNED, vm, host, 0, 0, 0);
+        }
+    }
+
+    public void drainPlanned(long host, int vms, long preProcessingNanos, long busyPesPermille) {
+        if (isInfoEnabled()) {
+            record(EventType.DRAIN_PLANNED, host, vms, preProcessingNanos, busyPesPermille, 0);
+        }
+    }
+
+    public void migrationRequested(long vm, long fromHost, long toHost) {
+        if (isInfoEnabled()) {
+            record(EventType.MIGRATION_REQUESTED, vm, fromHost, toHost, 0, 0);
+        }
+    }
+
+    public void noSuitableHost(long vm, long fromHost) {
+        if (isInfoEnabled()) {
+            record(EventType.NO_SUITABLE_HOST, vm, fromHost, 0, 0, 0);
+        }
+    }
+
+    public void migrationFinished(long vm, boolean successful) {
+        if (isInfoEnabled()) {
+            record(EventType.MIGRATION_FINISHED, vm, successful ? 1 : 0, 0, 0, 0);
+        }
+    }
+
+    public void maintenanceStarted(int hosts, int vms) {
+        if (isInfoEnabled()) {
+            record(EventType.MAINTENANCE_STARTED, hosts, vms, 0, 0, 0);
+        }
+    }
+
+    public void wavePlanned(int wave, int candidates, int started, int deferred, int unplaced) {
+        if (isInfoEnabled()) {
+            record(EventType.WAVE_PLANNED, wave, candidates, started, deferred, unplaced);
+        }
+    }
+
+    public void evacuationFinished(int hosts, int vms, int failedVms, int waves) {
+        if (isInfoEnabled()) {
+            record(EventType.EVACUATION_FINISHED, hosts, vms, failedVms, waves, 0);
+        }
+    }
+
+    public void simulationEnd(int vms, int allocations, int failedMigrations) {
+        if (isInfoEnabled()) {
+            record(EventType.SIMULATION_END, vms, allocations, failedMigrations, 0, 0);
+        }
+    }
+
+    private void record(EventType type, long field0, long field1, long field2, long field3, long field4) {
+        long sequence = recorded.get();
+        while (sequence - written.get() >= CAPACITY) {
+            if (failure != null || closed) {
+                return; // The writer is gone, drop the event rather than block forever
+            }
+            LockSupport.unpark(writerThread);
+            LockSupport.parkNanos(PRODUCER_WAIT_NANOS);
+        }
+        int slot = (int) sequence & (CAPACITY - 1);
+        types[slot] = type;
+        times[slot] = clock.getAsDouble();
+        int offset = slot * EventType.MAX_FIELDS;
+        fields[offset] = field0;
+        fields[offset + 1] = field1;
+        fields[offset + 2] = field2;
+        fields[offset + 3] = field3;
+        fields[offset + 4] = field4;
+        recorded.lazySet(sequence + 1); // Publishes the slot to the writer
+    }
+
+    private void writeEvents() {
+        StringBuilder line = new StringBuilder(128);
+        try {
+            while (true) {
+                boolean wasClosed = closed;
+                long end = recorded.get();
+                long sequence = written.get();
+                if (sequence == end) {
+                    if (wasClosed) {
+                        break;
+                    }
+                    writer.flush();
+                    LockSupport.parkNanos(WRITER_IDLE_NANOS);
+                    continue;
+                }
+                for (; sequence < end; sequence++) {
+                    int slot = (int) sequence & (CAPACITY - 1);
+                    appendEvent(line, slot);
+                    writer.append(line);
+                    line.setLength(0);
+                    written.lazySet(sequence + 1);
+                }
+            }
+            writer.close();
+        } catch (IOException e) {
+            failure = e;
+            try {
+                writer.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+        }
+    }
+
+    private void appendEvent(StringBuilder line, int slot) {
+        EventType type = types[slot];
+        line.append("{\"time\":").append(times[slot]).append(",\"event\":\"").append(type.name()).append('"');
+        String[] fieldNames = type.getFieldNames();
+        int offset = slot * EventType.MAX_FIELDS;
+        for (int i = 0; i < fieldNames.length; i++) {
+            line.append(",\"").append(fieldNames[i]).append("\":").append(fields[offset + i]);
+        }
+        line.append("}\n");
+    }
+
+    /**
+     * Writes the remaining events and closes the file
+     */
+    @Override
+    public void close() throws IOException {
+        if (!enabled || closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing the trace");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
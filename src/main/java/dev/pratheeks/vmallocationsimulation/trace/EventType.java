@@ -0,0 +1,37 @@
+package dev.pratheeks.vmallocationsimulation.trace;
+
+/**
+ * Kinds of traced events, with the names of their numeric fields in the order they are recorded
+ */
+public enum EventType {
+    SIMULATION_START("hosts", "seed"),
+    INITIAL_ALLOCATION("vm", "host", "pes", "ram", "bw"),
+    DRAIN_SCHEDULED("host", "vms"),
+    NO_VMS_TO_MIGRATE(),
+    PACKING_ENGINE_SELECTED("engine", "vms", "hosts", "predictedMicros", "elapsedMicros"),
+    PACKING_COMPUTED("vms", "additionalHosts", "unplacedVms", "optimal", "nodes"),
+    PACKING_PLANNED("vm", "host"),
+    DRAIN_PLANNED("host", "vms", "preProcessingNanos", "busyPesPermille"),
+    MIGRATION_REQUESTED("vm", "fromHost", "toHost"),
+    NO_SUITABLE_HOST("vm", "fromHost"),
+    MIGRATION_FINISHED("vm", "successful"),
+    MAINTENANCE_STARTED("hosts", "vms"),
+    WAVE_PLANNED("wave", "candidates", "started", "deferred", "unplaced"),
+    EVACUATION_FINISHED("hosts", "vms", "failedVms", "waves"),
+    SIMULATION_END("vms", "allocations", "failedMigrations");
+
+    /**
+     * Largest number of fields of an event
+     */
+    static final int MAX_FIELDS = 5;
+
+    private final String[] fieldNames;
+
+    EventType(String... fieldNames) {
+        this.fieldNames = fieldNames;
+    }
+
+    String[] getFieldNames() {
+        return fieldNames;
+    }
+}
@@ -0,0 +1,108 @@
+package dev.pratheeks.vmallocationsimulation.workload;
+
+import java.util.Random;
+
+/**
+ * VMs arriving over a stretch of simulated time:
+ * <ul>
+ *     <li>arrivals follow a Poisson process, the time between two arrivals is exponentially distributed</li>
+ *     <li>lifetimes follow a Pareto distribution, most VMs are short-lived and a few run for a long time</li>
+ *     <li>sizes are bimodal, a VM is either small (1-4 PEs, 1-8 GB) or large (8-16 PEs, 16-32 GB)</li>
+ * </ul>
+ * Each VM is drawn when it is asked for, from a random generator of its own so that the workload of a seed does
+ * not depend on how the simulation interleaves its own random draws.
+ */
+public class StreamingWorkload implements Workload {
+    private static final long VM_SIZE = 10_000; // 10 GB
+    private static final long VM_BW = 1000; // 1 Gbps
+    private static final int SMALL_PES_MIN = 1;
+    private static final int SMALL_PES_MAX = 4;
+    private static final long SMALL_RAM_MIN = 1000; // 1 GB
+    private static final long SMALL_RAM_MAX = 8000; // 8 GB
+    private static final int LARGE_PES_MIN = 8;
+    private static final int LARGE_PES_MAX = 16;
+    private static final long LARGE_RAM_MIN = 16_000; // 16 GB
+    private static final long LARGE_RAM_MAX = 32_000; // 32 GB
+
+    /**
+     * Defaults of {@link #forOccupancy(int, int, Random)}: a simulated day, VMs living at least 36 minutes and 1 hour
+     * on average (with a tail heavy enough for some to run all day, yet light enough for the mean to settle within a
+     * day), 80% of them small, enough arrivals to keep 70% of the PEs busy once the load is steady
+     */
+    private static final double DEFAULT_DURATION = 24 * 60 * 60;
+    private static final double DEFAULT_MIN_LIFETIME = 36 * 60;
+    private static final double DEFAULT_LIFETIME_SHAPE = 2.5;
+    private static final double DEFAULT_SMALL_FRACTION = 0.8;
+    private static final double DEFAULT_OCCUPANCY = 0.7;
+
+    private final Random random;
+    private final double arrivalsPerSecond;
+    private final double duration;
+    private final double minLifetime;
+    private final double lifetimeShape;
+    private final double smallFraction;
+    private double clock = 0;
+
+    /**
+     * @param arrivalsPerSecond mean number of VMs arriving per second of simulated time
+     * @param duration          simulated seconds after which no more VMs arrive and the run stops
+     * @param minLifetime       smallest lifetime of a VM in seconds, the scale of the Pareto distribution
+     * @param lifetimeShape     shape of the Pareto distribution of lifetimes, the smaller the heavier the tail; the
+     *                          mean lifetime is minLifetime * shape / (shape - 1) for a shape above 1
+     * @param smallFraction     probability that a VM is small
+     */
+    public StreamingWorkload(Random random, double arrivalsPerSecond, double duration, double minLifetime,
+                             double lifetimeShape, double smallFraction) {
+        if (arrivalsPerSecond <= 0 || minLifetime <= 0 || lifetimeShape <= 0) {
+            throw new IllegalArgumentException("Arrival rate, minimum lifetime and lifetime shape must be positive");
+        }
+        this.random = random;
+        this.arrivalsPerSecond = arrivalsPerSecond;
+        this.duration = duration;
+        this.minLifetime = minLifetime;
+        this.lifetimeShape = lifetimeShape;
+        this.smallFraction = smallFraction;
+    }
+
+    /**
+     * A simulated day whose arrival rate keeps the default share of the PEs of the datacenter busy once the load is
+     * steady, by Little's law: busy PEs = arrival rate * mean lifetime * mean PEs per VM
+     */
+    public static StreamingWorkload forOccupancy(int hostCount, int pesPerHost, Random random) {
+        double meanLifetime = DEFAULT_MIN_LIFETIME * DEFAULT_LIFETIME_SHAPE / (DEFAULT_LIFETIME_SHAPE - 1);
+        double meanPes = DEFAULT_SMALL_FRACTION * (SMALL_PES_MIN + SMALL_PES_MAX) / 2.0
+                + (1 - DEFAULT_SMALL_FRACTION) * (LARGE_PES_MIN + LARGE_PES_MAX) / 2.0;
+        double arrivalsPerSecond = DEFAULT_OCCUPANCY * hostCount * pesPerHost / (meanLifetime * meanPes);
+        return new StreamingWorkload(new Random(random.nextLong()), arrivalsPerSecond, DEFAULT_DURATION,
+                DEFAULT_MIN_LIFETIME, DEFAULT_LIFETIME_SHAPE, DEFAULT_SMALL_FRACTION);
+    }
+
+    @Override
+    public VmRequest next() {
+        clock += -Math.log(1 - random.nextDouble()) / arrivalsPerSecond;
+        if (clock > duration) {
+            return null;
+        }
+        // Lifetimes past the end of the run make no difference, capping them keeps the cloudlet lengths in range
+        double lifetime = Math.min(minLifetime / Math.pow(1 - random.nextDouble(), 1 / lifetimeShape), duration);
+        if (random.nextDouble() < smallFraction) {
+            return new VmRequest(VmRequest.NO_ID, clock, uniform(SMALL_PES_MIN, SMALL_PES_MAX), uniform(SMALL_RAM_MIN, SMALL_RAM_MAX),
+                    VM_BW, VM_SIZE, lifetime);
+        }
+        return new VmRequest(VmRequest.NO_ID, clock, uniform(LARGE_PES_MIN, LARGE_PES_MAX), uniform(LARGE_RAM_MIN, LARGE_RAM_MAX),
+                VM_BW, VM_SIZE, lifetime);
+    }
+
+    private int uniform(int min, int max) {
+        return min + random.nextInt(max - min + 1);
+    }
+
+    private long uniform(long min, long max) {
+        return min + (long) (random.nextDouble() * (max - min));
+    }
+
+    @Override
+    public double getDuration() {
+        return duration;
+    }
+}
@@ -0,0 +1,115 @@
+package dev.pratheeks.vmallocationsimulation.workload;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Converts a CSV placement trace to the binary format replayed by {@link TraceReplayWorkload}.
+ * <p>
+ * The CSV has a header line, then one VM per line: vmId,arrival,departure,cores,ram,bandwidth, with times in
+ * seconds, RAM in MB and bandwidth in Mbps. An empty departure means the VM outlives the trace. Lines must be in
+ * order of arrival, which is how traces are usually recorded, so the conversion streams in constant memory.
+ * <p>
+ * Usage: {@code TraceConverter <trace.csv> <trace.vmtrace>}
+ */
+public class TraceConverter {
+    private static final int BUFFER_RECORDS = 1 << 16;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: TraceConverter <trace.csv> <trace.vmtrace>");
+            System.exit(2);
+        }
+        long records = convert(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.printf("Converted %d VMs to %s%n", records, args[1]);
+    }
+
+    /**
+     * @return the number of VMs converted
+     */
+    public static long convert(Path csvFile, Path traceFile) throws IOException {
+        Path tempFile = traceFile.resolveSibling(traceFile.getFileName() + ".tmp");
+        long records = 0;
+        double lastArrival = Double.NEGATIVE_INFINITY;
+        double duration = 0;
+        boolean converted = false;
+        try (BufferedReader reader = Files.newBufferedReader(csvFile, StandardCharsets.US_ASCII);
+             FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_RECORDS * TraceReplayWorkload.RECORD_BYTES);
+            buffer.position(TraceReplayWorkload.HEADER_BYTES); // Written once the records are counted
+            reader.readLine(); // Header
+            String line;
+            int lineNumber = 1;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                String[] columns = line.split(",", -1);
+                if (columns.length != 6) {
+                    throw new IOException(csvFile + ":" + lineNumber + ": expected 6 columns: " + line);
+                }
+                double arrival;
+                double departure;
+                try {
+                    arrival = Double.parseDouble(columns[1]);
+                    departure = columns[2].isBlank() ? Double.POSITIVE_INFINITY : Double.parseDouble(columns[2]);
+                    if (buffer.remaining() < TraceReplayWorkload.RECORD_BYTES) {
+                        write(channel, buffer);
+                    }
+                    buffer.putLong(Long.parseLong(columns[0].trim()))
+                            .putDouble(arrival)
+                            .putDouble(departure)
+                            .putInt(Integer.parseInt(columns[3].trim()))
+                            .putLong(Long.parseLong(columns[4].trim()))
+                            .putLong(Long.parseLong(columns[5].trim()));
+                } catch (NumberFormatException e) {
+                    throw new IOException(csvFile + ":" + lineNumber + ": invalid number: " + line, e);
+                }
+                if (arrival < lastArrival) {
+                    throw new IOException(csvFile + ":" + lineNumber + ": arrivals are not in order, sort the trace by arrival first");
+                }
+                if (departure < arrival) {
+                    throw new IOException(csvFile + ":" + lineNumber + ": departure before arrival: " + line);
+                }
+                lastArrival = arrival;
+                duration = Math.max(duration, Double.isInfinite(departure) ? arrival : departure);
+                records++;
+            }
+            write(channel, buffer);
+
+            buffer.putInt(TraceReplayWorkload.MAGIC)
+                    .putInt(TraceReplayWorkload.VERSION)
+                    .putLong(records)
+                    .putDouble(duration)
+                    .flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, buffer.position());
+            }
+            converted = true;
+        } finally {
+            if (!converted) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+        Files.move(tempFile, traceFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return records;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
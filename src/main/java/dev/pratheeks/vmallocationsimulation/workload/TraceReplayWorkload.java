@@ -0,0 +1,117 @@
+package dev.pratheeks.vmallocationsimulation.workload;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Replays the VMs of a production placement trace, converted to the binary format below by {@link TraceConverter}.
+ * <p>
+ * The file is memory-mapped one region at a time and each record is decoded when the simulation asks for it, so a
+ * trace of any size replays without being loaded onto the heap; the operating system pages the regions in and out.
+ * <p>
+ * Format, big-endian: a header of {@link #MAGIC}, {@link #VERSION}, the number of records (long) and the simulation
+ * time the replay stops at (double), then fixed size records in order of arrival: VM ID (long), arrival and
+ * departure time in seconds (double, departure +Infinity if the VM outlives the trace), PEs (int), RAM in MB (long)
+ * and bandwidth in Mbps (long).
+ */
+public class TraceReplayWorkload implements Workload {
+    static final int MAGIC = 0x564D5452; // "VMTR"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 4 + 4 + 8 + 8;
+    static final int RECORD_BYTES = 8 + 8 + 8 + 4 + 8 + 8;
+    /**
+     * Records mapped at a time, a region stays under the 2 GB limit of a single mapping
+     */
+    private static final long RECORDS_PER_REGION = (1L << 30) / RECORD_BYTES;
+    private static final long VM_SIZE = 10_000; // 10 GB, traces do not record the disk of the VMs
+
+    private final Path file;
+    private final long recordCount;
+    private final double duration;
+    private long nextRecord = 0;
+    private MappedByteBuffer region;
+    private long regionEnd = 0;
+
+    public TraceReplayWorkload(Path file) throws IOException {
+        this.file = file;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // Read the whole header
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a VM trace, convert it with TraceConverter");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(file + " has trace format version " + version + ", expected " + VERSION);
+            }
+            recordCount = header.getLong();
+            duration = header.getDouble();
+            if (channel.size() != HEADER_BYTES + recordCount * RECORD_BYTES) {
+                throw new IOException(file + " is truncated: " + recordCount + " records expected");
+            }
+        }
+    }
+
+    /**
+     * Factory of the replay of a trace file, which ignores the host count and the random generator of the runs.
+     * The header of the file is checked right away, so an invalid trace fails before any run starts.
+     */
+    public static Workload.Factory factory(Path file) throws IOException {
+        new TraceReplayWorkload(file);
+        return (hostCount, pesPerHost, random) -> {
+            try {
+                return new TraceReplayWorkload(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        };
+    }
+
+    @Override
+    public VmRequest next() {
+        if (nextRecord == recordCount) {
+            region = null;
+            return null;
+        }
+        if (nextRecord == regionEnd) {
+            mapRegion();
+        }
+        nextRecord++;
+        long id = region.getLong();
+        double arrival = region.getDouble();
+        double departure = region.getDouble();
+        int pes = region.getInt();
+        long ram = region.getLong();
+        long bw = region.getLong();
+        return new VmRequest(id, arrival, pes, ram, bw, VM_SIZE, departure - arrival);
+    }
+
+    private void mapRegion() {
+        long records = Math.min(RECORDS_PER_REGION, recordCount - nextRecord);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // The mapping stays valid once the channel is closed
+            region = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + nextRecord * RECORD_BYTES,
+                    records * RECORD_BYTES);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        regionEnd = nextRecord + records;
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    @Override
+    public double getDuration() {
+        return duration;
+    }
+}
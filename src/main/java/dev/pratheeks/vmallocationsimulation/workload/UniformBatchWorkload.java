@@ -0,0 +1,48 @@
+package dev.pratheeks.vmallocationsimulation.workload;
+
+import java.util.Random;
+
+/**
+ * A fixed number of VMs, all submitted at the start and running until the simulation ends, with uniformly
+ * distributed PEs and RAM
+ */
+public class UniformBatchWorkload implements Workload {
+    private static final long VM_SIZE = 10_000; // 10 GB
+    private static final long VM_BW = 1000; // 1 Gbps
+    private static final long VM_RAM_MIN = 1000; // 1 GB
+    private static final long VM_RAM_MAX = 32_000; // 32 GB
+    private static final int VM_PES_MIN = 1;
+    private static final int VM_PES_MAX = 16;
+
+    private final int vmCount;
+    private final Random random;
+    private int created = 0;
+
+    public UniformBatchWorkload(int vmCount, Random random) {
+        this.vmCount = vmCount;
+        this.random = random;
+    }
+
+    /**
+     * @return 3 VMs per host
+     */
+    public static UniformBatchWorkload forHosts(int hostCount, int pesPerHost, Random random) {
+        return new UniformBatchWorkload(hostCount * 3, random);
+    }
+
+    @Override
+    public VmRequest next() {
+        if (created == vmCount) {
+            return null;
+        }
+        created++;
+        int pes = VM_PES_MIN + random.nextInt(VM_PES_MAX - VM_PES_MIN + 1);
+        long ram = VM_RAM_MIN + (long) (random.nextDouble() * (VM_RAM_MAX - VM_RAM_MIN));
+        return new VmRequest(VmRequest.NO_ID, 0, pes, ram, VM_BW, VM_SIZE, Double.POSITIVE_INFINITY);
+    }
+
+    @Override
+    public double getDuration() {
+        return Double.POSITIVE_INFINITY;
+    }
+}
@@ -0,0 +1,29 @@
+package dev.pratheeks.vmallocationsimulation.workload;
+
+import lombok.Value;
+
+/**
+ * A VM submitted by a {@link Workload}, with the cloudlet that keeps it busy for its lifetime
+ */
+@Value
+public class VmRequest {
+    public static final long NO_ID = -1;
+
+    /**
+     * ID the VM is created with, {@link #NO_ID} to let the broker assign one
+     */
+    long id;
+    /**
+     * Simulation time the VM is submitted at, in seconds
+     */
+    double arrivalTime;
+    int pes;
+    long ram; // MB
+    long bw; // Mbps
+    long size; // MB
+    /**
+     * Seconds the VM runs for before it is destroyed, {@link Double#POSITIVE_INFINITY} to run until the simulation
+     * ends
+     */
+    double lifetime;
+}
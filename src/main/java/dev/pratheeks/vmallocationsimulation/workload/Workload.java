@@ -0,0 +1,31 @@
+package dev.pratheeks.vmallocationsimulation.workload;
+
+import java.util.Random;
+
+/**
+ * Source of the VMs of a simulation run, generated one at a time in order of arrival so that a run never holds
+ * more of them than it has submitted
+ */
+public interface Workload {
+    /**
+     * @return the next VM, arriving no earlier than the previous one, or null when there are no more
+     */
+    VmRequest next();
+
+    /**
+     * @return simulation time the run is stopped at, in seconds, {@link Double#POSITIVE_INFINITY} to run until
+     * every VM is done
+     */
+    double getDuration();
+
+    /**
+     * Creates the workload of a run
+     */
+    @FunctionalInterface
+    interface Factory {
+        /**
+         * @param random source of the randomness of the run, shared with the rest of the simulation
+         */
+        Workload create(int hostCount, int pesPerHost, Random random);
+    }
+}
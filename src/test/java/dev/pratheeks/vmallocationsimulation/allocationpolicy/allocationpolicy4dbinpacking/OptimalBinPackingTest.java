@@ -0,0 +1,171 @@
+package dev.pratheeks.vmallocationsimulation.allocationpolicy.allocationpolicy4dbinpacking;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks the exact search, sequential and parallel, with and without its transposition table and solution cache,
+ * against an exhaustive search of random problems small enough to enumerate
+ */
+class OptimalBinPackingTest {
+    private static final int PROBLEMS = 300;
+    private static ForkJoinPool pool;
+
+    @BeforeAll
+    static void startPool() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterAll
+    static void stopPool() {
+        pool.shutdown();
+    }
+
+    @Test
+    void sequentialSearchIsOptimal() {
+        checkAgainstExhaustiveSearch(null, 0, false);
+    }
+
+    @Test
+    void sequentialSearchWithoutTranspositionTableIsOptimal() {
+        checkAgainstExhaustiveSearch(null, Long.MAX_VALUE, false);
+    }
+
+    @Test
+    void parallelSearchIsOptimal() {
+        checkAgainstExhaustiveSearch(pool, 0, false);
+    }
+
+    @Test
+    void parallelSearchWithoutTranspositionTableIsOptimal() {
+        checkAgainstExhaustiveSearch(pool, Long.MAX_VALUE, false);
+    }
+
+    @Test
+    void cachedSearchIsOptimal() {
+        checkAgainstExhaustiveSearch(null, 0, true);
+        checkAgainstExhaustiveSearch(pool, 0, true);
+    }
+
+    @Test
+    void parallelSearchFindsTheSequentialAllocation() {
+        Random random = new Random(2);
+        for (int i = 0; i < PROBLEMS; i++) {
+            PackedCapacityModel model = randomModel(random);
+            OptimalBinPacking sequential = new OptimalBinPacking(model, 0, 0, null);
+            OptimalBinPacking parallel = new OptimalBinPacking(model, 0, 0, pool);
+            assertEquals(sequential.findOptimalAllocation(), parallel.findOptimalAllocation(), "problem " + i);
+        }
+    }
+
+    /**
+     * @param transpositionMinNodes 0 to use the transposition table from the first node, Long.MAX_VALUE to never
+     * @param cached                solve each problem twice through a solution cache, the second time from it
+     */
+    private static void checkAgainstExhaustiveSearch(ForkJoinPool pool, long transpositionMinNodes, boolean cached) {
+        Random random = new Random(1);
+        for (int i = 0; i < PROBLEMS; i++) {
+            PackedCapacityModel model = randomModel(random);
+            int expected = exhaustiveMinHosts(model);
+            PackingSolutionCache cache = cached ? new PackingSolutionCache(4) : null;
+            for (int run = 0; run < (cached ? 2 : 1); run++) {
+                OptimalBinPacking search = new OptimalBinPacking(model, 0, 0, pool);
+                search.setTranspositionMinNodes(transpositionMinNodes);
+                search.setSolutionCache(cache);
+                Map<Long, Long> allocation = search.findOptimalAllocation();
+                String problem = "problem " + i + " run " + run;
+                assertTrue(search.isOptimal(), problem);
+                if (cached) {
+                    assertEquals(run == 1, search.isSolutionCacheHit(), problem);
+                }
+                if (expected == Integer.MAX_VALUE) {
+                    assertTrue(allocation.isEmpty(), problem + " has no allocation");
+                    continue;
+                }
+                assertEquals(expected, search.getMinAdditionalHostsUsed(), problem);
+                assertEquals(expected, checkAllocation(model, allocation), problem);
+            }
+        }
+    }
+
+    /**
+     * Hosts of a few capacity classes, some already running VMs, and up to 7 VMs to place
+     */
+    private static PackedCapacityModel randomModel(Random random) {
+        int hosts = 1 + random.nextInt(5);
+        int vms = random.nextInt(8);
+        PackedCapacityModel model = new PackedCapacityModel(hosts, vms + hosts);
+        for (int h = 0; h < hosts; h++) {
+            int host = model.addHost(h, 1024L << random.nextInt(2), 4L << random.nextInt(2), 1000, 100);
+            if (random.nextBoolean()) {
+                int running = model.addVm(1000 + h, 128L * (1 + random.nextInt(4)), 1 + random.nextInt(2), 100, 10);
+                model.allocateVm(running, host);
+            }
+        }
+        for (int v = 0; v < vms; v++) {
+            model.addVm(v, 128L * (1 + random.nextInt(8)), 1 + random.nextInt(4), 100 * (1 + random.nextInt(4)),
+                    10 * random.nextInt(5));
+        }
+        return model;
+    }
+
+    /**
+     * @return the fewest hosts any allocation of the unassigned VMs places VMs on, Integer.MAX_VALUE if none fits
+     */
+    private static int exhaustiveMinHosts(PackedCapacityModel model) {
+        return exhaustiveMinHosts(model, model.unassignedVms(), 0, new int[model.getHostCount()]);
+    }
+
+    private static int exhaustiveMinHosts(PackedCapacityModel model, int[] vms, int next, int[] vmsOnHost) {
+        if (next == vms.length) {
+            int used = 0;
+            for (int count : vmsOnHost) {
+                used += count > 0 ? 1 : 0;
+            }
+            return used;
+        }
+        int best = Integer.MAX_VALUE;
+        for (int host = 0; host < model.getHostCount(); host++) {
+            if (model.canFitVm(host, vms[next])) {
+                model.allocateVm(vms[next], host);
+                vmsOnHost[host]++;
+                best = Math.min(best, exhaustiveMinHosts(model, vms, next + 1, vmsOnHost));
+                vmsOnHost[host]--;
+                model.deallocateVm(vms[next]);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Asserts that the allocation places every unassigned VM within the capacity of the hosts
+     *
+     * @return the number of hosts it places VMs on
+     */
+    private static int checkAllocation(PackedCapacityModel model, Map<Long, Long> allocation) {
+        PackedCapacityModel copy = new PackedCapacityModel(model);
+        Map<Long, Integer> hostIndexById = new HashMap<>();
+        for (int host = 0; host < copy.getHostCount(); host++) {
+            hostIndexById.put(copy.getHostId(host), host);
+        }
+        int[] vms = copy.unassignedVms();
+        assertEquals(vms.length, allocation.size());
+        for (int vm : vms) {
+            Long hostId = allocation.get(copy.getVmId(vm));
+            assertNotNull(hostId, "VM " + copy.getVmId(vm) + " is placed");
+            int host = hostIndexById.get(hostId);
+            assertTrue(copy.canFitVm(host, vm), "VM " + copy.getVmId(vm) + " fits on host " + hostId);
+            copy.allocateVm(vm, host);
+        }
+        return new HashSet<>(allocation.values()).size();
+    }
+}
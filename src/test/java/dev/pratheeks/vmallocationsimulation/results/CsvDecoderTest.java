@@ -0,0 +1,90 @@
+package dev.pratheeks.vmallocationsimulation.results;
+
+import dev.pratheeks.vmallocationsimulation.CSVBean;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CsvDecoderTest {
+    @Test
+    void parsesDecimalsAsDoubleParseDouble() {
+        Random random = new Random(7);
+        for (int i = 0; i < 300_000; i++) {
+            String decimal = randomDecimal(random, i % 6);
+            double decoded = decode("1," + decimal + ",true,1,2,0,true,0,5\n").allocationTime;
+            assertEquals(Double.doubleToRawLongBits(Double.parseDouble(decimal)), Double.doubleToRawLongBits(decoded),
+                    decimal);
+        }
+    }
+
+    @Test
+    void parsesSpecialValues() {
+        for (String decimal : new String[]{"NaN", "Infinity", "-Infinity", "-0.0", "0", "4.9E-324",
+                "1.7976931348623157E308", "9007199254740993", "123456789012345678901234567890"}) {
+            double decoded = decode("1," + decimal + ",true,1,2,0,true,0,5\n").allocationTime;
+            assertEquals(Double.doubleToRawLongBits(Double.parseDouble(decimal)), Double.doubleToRawLongBits(decoded),
+                    decimal);
+        }
+    }
+
+    @Test
+    void decodesEncodedRows() {
+        Random random = new Random(8);
+        CsvEncoder encoder = new CsvEncoder();
+        for (int i = 0; i < 10_000; i++) {
+            CSVBean row = new CSVBean(random.nextInt(100_000), random.nextDouble() * 10, random.nextBoolean(),
+                    random.nextInt(1000), random.nextInt(1000) - 1, random.nextDouble() * 100, random.nextBoolean(),
+                    random.nextDouble() * 1e5, random.nextLong() >>> 1);
+            ByteBuffer buffer = ByteBuffer.allocate(CsvEncoder.MAX_ROW_LENGTH);
+            encoder.encode(buffer, row);
+            CsvDecoder decoder = new CsvDecoder();
+            decoder.reset(buffer, 0, buffer.position());
+            assertTrue(decoder.next(false));
+            assertEquals(row.getVmId(), decoder.vmId);
+            assertEquals(row.getAllocationTime(), decoder.allocationTime);
+            assertEquals(row.isAllocated(), decoder.allocated);
+            assertEquals(row.getFromHost(), decoder.fromHost);
+            assertEquals(row.getToHost(), decoder.toHost);
+            assertEquals(row.getMigrationTime(), decoder.migrationTime);
+            assertEquals(row.isMigrationSuccess(), decoder.migrationSuccess);
+            assertEquals(row.getMigrationRequestTime(), decoder.migrationRequestTime);
+            assertEquals(row.getBytesMoved(), decoder.bytesMoved);
+            assertFalse(decoder.next(false));
+        }
+    }
+
+    @Test
+    void rejectsMalformedRows() {
+        assertThrows(IllegalArgumentException.class, () -> decode("1,2.5,yes,1,2,0,true,0,5\n"));
+        assertThrows(IllegalArgumentException.class, () -> decode("1,2.5e,true,1,2,0,true,0,5\n"));
+    }
+
+    private static CsvDecoder decode(String row) {
+        byte[] bytes = row.getBytes(StandardCharsets.US_ASCII);
+        CsvDecoder decoder = new CsvDecoder();
+        decoder.reset(ByteBuffer.wrap(bytes), 0, bytes.length);
+        assertTrue(decoder.next(false));
+        return decoder;
+    }
+
+    private static String randomDecimal(Random random, int form) {
+        return switch (form) {
+            case 0 -> Double.toString(random.nextDouble() * Math.pow(10, random.nextInt(40) - 20));
+            case 1 -> {
+                double value = Double.longBitsToDouble(random.nextLong());
+                yield Double.isFinite(value) ? Double.toString(value) : "1.5";
+            }
+            case 2 -> String.format(Locale.ROOT, "%." + random.nextInt(20) + "f", random.nextDouble() * 1e6);
+            case 3 -> ((random.nextLong() >>> 1) >>> random.nextInt(64)) + "."
+                    + ((random.nextLong() >>> 1) >>> random.nextInt(64));
+            case 4 -> "0." + "0".repeat(random.nextInt(25)) + ((random.nextLong() >>> 1) >>> random.nextInt(64))
+                    + "e" + (random.nextInt(60) - 30);
+            default -> Double.toString((float) random.nextGaussian() * 1000);
+        };
+    }
+}
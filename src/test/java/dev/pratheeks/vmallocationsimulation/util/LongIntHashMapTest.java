@@ -0,0 +1,74 @@
+package dev.pratheeks.vmallocationsimulation.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LongIntHashMapTest {
+    @Test
+    void matchesHashMapUnderRandomOperations() {
+        Random random = new Random(3);
+        LongIntHashMap map = new LongIntHashMap(4);
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 200_000; i++) {
+            // Few distinct keys, so that removals often shift back a run of colliding keys
+            long key = random.nextInt(512) * (random.nextBoolean() ? 1L : 1L << 40);
+            switch (random.nextInt(3)) {
+                case 0 -> {
+                    map.put(key, i);
+                    expected.put(key, i);
+                }
+                case 1 -> {
+                    Integer removed = expected.remove(key);
+                    assertEquals(removed == null ? -1 : removed, map.remove(key, -1), "remove " + key);
+                }
+                default -> assertEquals(expected.getOrDefault(key, -1), map.get(key, -1), "get " + key);
+            }
+            if (i % 1000 == 0) {
+                assertSameContent(expected, map);
+            }
+        }
+        assertSameContent(expected, map);
+    }
+
+    @Test
+    void removeShiftsBackCollidingKeys() {
+        LongIntHashMap map = new LongIntHashMap(64);
+        // Sequential keys land in runs of neighbouring slots once the table is half full
+        for (long key = 0; key < 64; key++) {
+            map.put(key, (int) key);
+        }
+        for (long key = 0; key < 64; key += 2) {
+            assertEquals((int) key, map.remove(key, -1));
+        }
+        for (long key = 0; key < 64; key++) {
+            assertEquals(key % 2 == 0 ? -1 : (int) key, map.get(key, -1), "key " + key);
+            assertEquals(key % 2 != 0, map.containsKey(key), "key " + key);
+        }
+        assertEquals(32, map.size());
+    }
+
+    @Test
+    void clearEmptiesTheMap() {
+        LongIntHashMap map = new LongIntHashMap();
+        for (long key = 0; key < 100; key++) {
+            map.put(key, 1);
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        assertFalse(map.containsKey(5));
+        map.put(5, 2);
+        assertEquals(2, map.get(5, -1));
+    }
+
+    private static void assertSameContent(Map<Long, Integer> expected, LongIntHashMap map) {
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey(), -1), "key " + entry.getKey());
+        }
+    }
+}